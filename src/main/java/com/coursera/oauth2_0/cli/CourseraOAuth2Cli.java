@@ -0,0 +1,354 @@
+package com.coursera.oauth2_0.cli;
+
+import com.coursera.oauth2_0.exception.CreateClientAppException;
+import com.coursera.oauth2_0.exception.TokenNotGeneratedException;
+import com.coursera.oauth2_0.model.AuthTokens;
+import com.coursera.oauth2_0.model.ClientConfig;
+import com.coursera.oauth2_0.service.AuthTokensListener;
+import com.coursera.oauth2_0.service.CourseraOAuth2Service;
+import com.coursera.oauth2_0.service.CourseraOAuth2ServiceFactory;
+import com.coursera.oauth2_0.util.AuthTokensEventType;
+import com.coursera.oauth2_0.util.CourseraOAuth2ServiceType;
+import java.io.BufferedReader;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+/**
+ * Command line front end of {@link CourseraOAuth2Service}. Besides single commands it serves
+ * many token requests from one JVM: batch mode reads client names and writes newline-delimited JSON,
+ * serve mode answers commands read line by line from a pipe.
+ *
+ * @author Viktor Yurlov
+ */
+public final class CourseraOAuth2Cli {
+
+    private static final String USAGE = String.join("\n",
+            "Usage: coaclient <command> [arguments]",
+            "",
+            "Commands:",
+            "  add <client_name> <client_id> <client_secret> [scope...]  Add new client config",
+            "  delete <client_name>                                      Delete client config and tokens",
+            "  list                                                      List client configs",
+            "  generate <client_name>                                    Generate auth tokens in the browser",
+            "  token <client_name>                                       Print access token, refreshed if expired",
+            "  batch [--file <path>] [--threads <count>]                 Print access tokens of client names read",
+            "                                                            from stdin or file as JSON lines",
+            "  --serve                                                   Answer commands read line by line from stdin",
+            "                                                            with one JSON line each");
+
+    private static final int EXIT_OK = 0;
+    private static final int EXIT_FAILURE = 1;
+    private static final int EXIT_USAGE = 2;
+    private static final long GENERATE_TIMEOUT_MINUTES = 5;
+    private static final String LOG4J_CONFIGURATION_PROPERTY = "log4j.configuration";
+    private static final String LOG4J_CONFIGURATION = "coaclient-cli-log4j.properties";
+
+    private static final String CLIENT_NAME_KEY = "client_name";
+    private static final String CLIENT_ID_KEY = "client_id";
+    private static final String SCOPE_KEY = "scope";
+    private static final String ACCESS_TOKEN_KEY = "access_token";
+    private static final String EXPIRES_AT_KEY = "expires_at";
+    private static final String CLIENTS_KEY = "clients";
+    private static final String STATUS_KEY = "status";
+    private static final String ERROR_KEY = "error";
+    private static final String STATUS_OK = "ok";
+
+    private final CourseraOAuth2Service service;
+    private final PrintStream out;
+    private final PrintStream err;
+
+    CourseraOAuth2Cli(CourseraOAuth2Service service, PrintStream out, PrintStream err) {
+        this.service = service;
+        this.out = out;
+        this.err = err;
+    }
+
+    public static void main(String[] args) {
+        // logs go to stderr, so that stdout carries only command output; set before any logger is created
+        if (System.getProperty(LOG4J_CONFIGURATION_PROPERTY) == null) {
+            System.setProperty(LOG4J_CONFIGURATION_PROPERTY, LOG4J_CONFIGURATION);
+        }
+
+        int exitCode;
+        try (CourseraOAuth2Service service = CourseraOAuth2ServiceFactory.getInstance(CourseraOAuth2ServiceType.FILE)) {
+            exitCode = new CourseraOAuth2Cli(service, System.out, System.err).run(args, System.in);
+        }
+        System.exit(exitCode);
+    }
+
+    int run(String[] args, InputStream in) {
+        if (args.length == 0) {
+            err.println(USAGE);
+            return EXIT_USAGE;
+        }
+
+        String[] arguments = Arrays.copyOfRange(args, 1, args.length);
+        try {
+            switch (args[0]) {
+                case "add":
+                    return add(arguments);
+                case "delete":
+                    return delete(arguments);
+                case "list":
+                    return list(arguments);
+                case "generate":
+                    return generate(arguments);
+                case "token":
+                    return token(arguments);
+                case "batch":
+                    return batch(arguments, in);
+                case "--serve":
+                    return serve(in);
+                default:
+                    err.println(USAGE);
+                    return EXIT_USAGE;
+            }
+        } catch (IOException e) {
+            err.println("Error: " + e.getMessage());
+            return EXIT_FAILURE;
+        }
+    }
+
+    private int add(String[] arguments) {
+        if (arguments.length < 3) {
+            err.println(USAGE);
+            return EXIT_USAGE;
+        }
+        try {
+            addClientConfig(arguments);
+            return EXIT_OK;
+        } catch (CreateClientAppException e) {
+            err.println("Error: " + e.getMessage());
+            return EXIT_FAILURE;
+        }
+    }
+
+    private int delete(String[] arguments) {
+        if (arguments.length != 1) {
+            err.println(USAGE);
+            return EXIT_USAGE;
+        }
+        if (!service.deleteClientConfig(arguments[0])) {
+            err.println("Client " + arguments[0] + " not found.");
+            return EXIT_FAILURE;
+        }
+        return EXIT_OK;
+    }
+
+    private int list(String[] arguments) {
+        if (arguments.length != 0) {
+            err.println(USAGE);
+            return EXIT_USAGE;
+        }
+        for (ClientConfig config : service.getClientConfigs()) {
+            out.println(toJson(config));
+        }
+        return EXIT_OK;
+    }
+
+    private int generate(String[] arguments) {
+        if (arguments.length != 1) {
+            err.println(USAGE);
+            return EXIT_USAGE;
+        }
+
+        String clientName = arguments[0];
+        CountDownLatch created = new CountDownLatch(1);
+        AuthTokensListener listener = event -> {
+            if (event.getType() == AuthTokensEventType.CREATED && event.getClientName().equals(clientName)) {
+                created.countDown();
+            }
+        };
+        service.addAuthTokensListener(listener);
+        try {
+            service.generateAuthTokens(clientName);
+            err.println("Waiting for Coursera authorization in the browser...");
+            if (!created.await(GENERATE_TIMEOUT_MINUTES, TimeUnit.MINUTES)) {
+                err.println("Error: auth tokens of " + clientName + " are not generated in "
+                        + GENERATE_TIMEOUT_MINUTES + " minutes.");
+                return EXIT_FAILURE;
+            }
+            err.println("Auth tokens of " + clientName + " successfully generated.");
+            return EXIT_OK;
+        } catch (TokenNotGeneratedException e) {
+            err.println("Error: " + e.getMessage());
+            return EXIT_FAILURE;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return EXIT_FAILURE;
+        } finally {
+            service.removeAuthTokensListener(listener);
+            service.stopServerCallbackListener();
+        }
+    }
+
+    private int token(String[] arguments) {
+        if (arguments.length != 1) {
+            err.println(USAGE);
+            return EXIT_USAGE;
+        }
+
+        String accessToken = service.getAccessToken(arguments[0]);
+        if (accessToken == null) {
+            err.println("Access token of " + arguments[0] + " is not available.");
+            return EXIT_FAILURE;
+        }
+        out.println(accessToken);
+        return EXIT_OK;
+    }
+
+    private int batch(String[] arguments, InputStream in) throws IOException {
+        String file = null;
+        int threads = Runtime.getRuntime().availableProcessors();
+        for (int i = 0; i < arguments.length; i++) {
+            if ("--file".equals(arguments[i]) && i + 1 < arguments.length) {
+                file = arguments[++i];
+            } else if ("--threads".equals(arguments[i]) && i + 1 < arguments.length
+                    && arguments[i + 1].matches("[1-9][0-9]{0,3}")) {
+                threads = Integer.parseInt(arguments[++i]);
+            } else {
+                err.println(USAGE);
+                return EXIT_USAGE;
+            }
+        }
+
+        List<String> clientNames = new ArrayList<>();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+                file != null ? new FileInputStream(file) : in, StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (!line.trim().isEmpty()) {
+                    clientNames.add(line.trim());
+                }
+            }
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<JSONObject>> responses = new ArrayList<>(clientNames.size());
+            for (String clientName : clientNames) {
+                responses.add(executor.submit(() -> tokenResponse(clientName)));
+            }
+
+            int exitCode = EXIT_OK;
+            for (Future<JSONObject> response : responses) {
+                JSONObject json = response.get();
+                if (json.has(ERROR_KEY)) {
+                    exitCode = EXIT_FAILURE;
+                }
+                out.println(json);
+            }
+            out.flush();
+            return exitCode;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return EXIT_FAILURE;
+        } catch (ExecutionException e) {
+            err.println("Error: " + e.getCause().getMessage());
+            return EXIT_FAILURE;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private int serve(InputStream in) throws IOException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+        String line;
+        while ((line = reader.readLine()) != null) {
+            String[] request = line.trim().split("\\s+");
+            if (request[0].isEmpty()) {
+                continue;
+            }
+            out.println(serveRequest(request));
+            out.flush();
+        }
+        return EXIT_OK;
+    }
+
+    private JSONObject serveRequest(String[] request) {
+        String[] arguments = Arrays.copyOfRange(request, 1, request.length);
+        try {
+            switch (request[0]) {
+                case "token":
+                    if (arguments.length == 1) {
+                        return tokenResponse(arguments[0]);
+                    }
+                    break;
+                case "list":
+                    if (arguments.length == 0) {
+                        JSONArray clients = new JSONArray();
+                        for (ClientConfig config : service.getClientConfigs()) {
+                            clients.put(toJson(config));
+                        }
+                        return new JSONObject().put(CLIENTS_KEY, clients);
+                    }
+                    break;
+                case "add":
+                    if (arguments.length >= 3) {
+                        addClientConfig(arguments);
+                        return new JSONObject().put(CLIENT_NAME_KEY, arguments[0]).put(STATUS_KEY, STATUS_OK);
+                    }
+                    break;
+                case "delete":
+                    if (arguments.length == 1) {
+                        JSONObject json = new JSONObject().put(CLIENT_NAME_KEY, arguments[0]);
+                        return service.deleteClientConfig(arguments[0])
+                                ? json.put(STATUS_KEY, STATUS_OK)
+                                : json.put(ERROR_KEY, "Client not found");
+                    }
+                    break;
+                default:
+                    return new JSONObject().put(ERROR_KEY, "Unknown command: " + request[0]);
+            }
+            return new JSONObject().put(ERROR_KEY, "Invalid arguments of command: " + request[0]);
+        } catch (CreateClientAppException | RuntimeException e) {
+            return new JSONObject().put(ERROR_KEY, e.getMessage());
+        }
+    }
+
+    private JSONObject tokenResponse(String clientName) {
+        JSONObject json = new JSONObject().put(CLIENT_NAME_KEY, clientName);
+        try {
+            // refresh if expired, then take token and expiry from one read, so they always belong together
+            AuthTokens authTokens = service.getAccessToken(clientName) != null
+                    ? service.getAuthTokens(clientName)
+                    : null;
+            if (authTokens == null) {
+                return json.put(ERROR_KEY, "Access token is not available");
+            }
+            return json.put(ACCESS_TOKEN_KEY, authTokens.getAccessToken())
+                    .put(EXPIRES_AT_KEY, Long.parseLong(authTokens.getExpiredIn()));
+        } catch (RuntimeException e) {
+            return json.put(ERROR_KEY, e.getMessage());
+        }
+    }
+
+    private void addClientConfig(String[] arguments) throws CreateClientAppException {
+        Set<String> scopes = new HashSet<>(Arrays.asList(arguments).subList(3, arguments.length));
+        service.addClientConfig(arguments[0], arguments[1], arguments[2], scopes);
+    }
+
+    private static JSONObject toJson(ClientConfig config) {
+        return new JSONObject()
+                .put(CLIENT_NAME_KEY, config.getClientName())
+                .put(CLIENT_ID_KEY, config.getClientId())
+                .put(SCOPE_KEY, config.getClientScope());
+    }
+}
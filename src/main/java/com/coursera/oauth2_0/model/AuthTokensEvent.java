@@ -0,0 +1,16 @@
+package com.coursera.oauth2_0.model;
+
+import com.coursera.oauth2_0.util.AuthTokensEventType;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.ToString;
+
+@Getter
+@AllArgsConstructor
+@ToString
+public class AuthTokensEvent {
+    private String clientName;
+    private AuthTokensEventType type;
+    private AuthTokens authTokens;
+    private long timestamp;
+}
@@ -0,0 +1,81 @@
+package com.coursera.oauth2_0.service;
+
+import com.coursera.oauth2_0.model.AuthTokens;
+import com.coursera.oauth2_0.util.FileStamp;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import java.util.function.Function;
+
+/**
+ * Size-bounded in-memory tier in front of the persistent tokens store. Eviction is frequency
+ * and recency aware (W-TinyLFU), so hot clients stay resident while cold ones are evicted
+ * and loaded from the store again on the next request.
+ *
+ * Every entry is stamped with the store version it was loaded from and served only while the store
+ * still has that version, so tokens written or deleted by another process or directly through the store
+ * are picked up on the next request. Entries of unknown version are loaded from the store on every request.
+ *
+ * @author Viktor Yurlov
+ */
+final class AuthTokensCache {
+
+    private final Cache<String, CompactAuthTokens> cache;
+
+    private final Function<String, AuthTokens> store;
+
+    private final Function<String, FileStamp> versions;
+
+    AuthTokensCache(long maximumSize, Function<String, AuthTokens> store, Function<String, FileStamp> versions) {
+        this.cache = Caffeine.newBuilder()
+                .maximumSize(maximumSize)
+                .build();
+        this.store = store;
+        this.versions = versions;
+    }
+
+    /**
+     * Get client tokens from the cache, loading them from the store on a miss or if the store changed
+     *
+     * @param clientName Client name
+     * @return Cached tokens or null if the store has no tokens for the client
+     */
+    CompactAuthTokens get(String clientName) {
+        FileStamp version = versions.apply(clientName);
+        CompactAuthTokens authTokens = cache.getIfPresent(clientName);
+        if (authTokens != null && authTokens.isLoadedFrom(version)) {
+            return authTokens;
+        }
+        return cache.asMap().compute(clientName, (name, current) ->
+                current != null && current.isLoadedFrom(version) ? current : load(name));
+    }
+
+    /**
+     * Load client tokens from the store, bypassing the cached entry
+     *
+     * @param clientName Client name
+     * @return Stored tokens or null if the store has no tokens for the client
+     */
+    CompactAuthTokens reload(String clientName) {
+        return cache.asMap().compute(clientName, (name, current) -> load(name));
+    }
+
+    void invalidate(String clientName) {
+        cache.invalidate(clientName);
+    }
+
+    void invalidateAll() {
+        cache.invalidateAll();
+    }
+
+    long size() {
+        cache.cleanUp();
+        return cache.estimatedSize();
+    }
+
+    private CompactAuthTokens load(String clientName) {
+        // version first: a concurrent write makes the entry look stale instead of making stale tokens look current
+        FileStamp version = versions.apply(clientName);
+        AuthTokens authTokens = store.apply(clientName);
+        return authTokens != null ? CompactAuthTokens.of(authTokens, version) : null;
+    }
+}
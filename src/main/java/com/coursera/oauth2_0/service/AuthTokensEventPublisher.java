@@ -0,0 +1,78 @@
+package com.coursera.oauth2_0.service;
+
+import com.coursera.oauth2_0.model.AuthTokens;
+import com.coursera.oauth2_0.model.AuthTokensEvent;
+import com.coursera.oauth2_0.util.AuthTokensEventType;
+import com.coursera.oauth2_0.util.CourseraOAuth2Constants;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Delivers authentication tokens events to registered listeners on a dedicated dispatcher thread.
+ * Pending events are kept in a bounded buffer, the oldest event is dropped when the buffer is full.
+ *
+ * @author Viktor Yurlov
+ */
+final class AuthTokensEventPublisher {
+
+    private static final Logger logger = LoggerFactory.getLogger(AuthTokensEventPublisher.class);
+
+    private final List<AuthTokensListener> listeners = new CopyOnWriteArrayList<>();
+
+    private final ThreadPoolExecutor dispatcher;
+
+    AuthTokensEventPublisher(int bufferCapacity) {
+        dispatcher = new ThreadPoolExecutor(
+                1, 1,
+                0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(bufferCapacity),
+                runnable -> {
+                    Thread thread = new Thread(runnable, CourseraOAuth2Constants.EVENT_DISPATCHER_THREAD_NAME);
+                    thread.setDaemon(true);
+                    return thread;
+                },
+                (runnable, executor) -> {
+                    if (!executor.isShutdown()) {
+                        executor.getQueue().poll();
+                        logger.warn("Tokens event buffer is full, the oldest event is dropped.");
+                        executor.execute(runnable);
+                    }
+                });
+    }
+
+    void addListener(AuthTokensListener listener) {
+        if (listener != null) {
+            listeners.add(listener);
+        }
+    }
+
+    void removeListener(AuthTokensListener listener) {
+        listeners.remove(listener);
+    }
+
+    void publish(String clientName, AuthTokensEventType type, AuthTokens authTokens) {
+        if (listeners.isEmpty()) {
+            return;
+        }
+        AuthTokensEvent event = new AuthTokensEvent(clientName, type, authTokens, System.currentTimeMillis());
+        dispatcher.execute(() -> {
+            for (AuthTokensListener listener : listeners) {
+                try {
+                    listener.onAuthTokensEvent(event);
+                } catch (RuntimeException e) {
+                    logger.error("Tokens listener failed on {} event for client {}: {}",
+                            type, clientName, e.getMessage());
+                }
+            }
+        });
+    }
+
+    void shutdown() {
+        dispatcher.shutdown();
+    }
+}
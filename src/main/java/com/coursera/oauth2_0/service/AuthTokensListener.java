@@ -0,0 +1,19 @@
+package com.coursera.oauth2_0.service;
+
+import com.coursera.oauth2_0.model.AuthTokensEvent;
+
+/**
+ * Listener for authentication tokens rotation events
+ *
+ * @author Viktor Yurlov
+ */
+public interface AuthTokensListener {
+
+    /**
+     * Handle authentication tokens event. Called from the event dispatcher thread,
+     * never from the thread that created or refreshed the tokens.
+     *
+     * @param event Tokens event
+     */
+    void onAuthTokensEvent(AuthTokensEvent event);
+}
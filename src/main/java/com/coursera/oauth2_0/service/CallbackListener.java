@@ -0,0 +1,170 @@
+package com.coursera.oauth2_0.service;
+
+import com.coursera.oauth2_0.util.CourseraOAuth2Constants;
+import com.coursera.oauth2_0.util.FileOAuth2Utils;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Process-wide listener of authorization code callbacks on {@link CourseraOAuth2Constants#PORT}, shared by all runtimes.
+ * A callback is routed by its client id to the runtime that generates tokens for that client,
+ * or else to the first attached runtime whose config store has the client. Unknown clients are answered with 400.
+ * The listener runs while at least one runtime is attached to it.
+ *
+ * @author Viktor Yurlov
+ */
+final class CallbackListener {
+
+    private static final Logger logger = LoggerFactory.getLogger(CallbackListener.class);
+
+    private final Map<FileOAuth2Runtime, Route> routes = new LinkedHashMap<>();
+
+    private final Map<String, FileOAuth2Runtime> expectedClients = new HashMap<>();
+
+    private HttpServer server;
+
+    private ExecutorService callbackExecutor;
+
+    /**
+     * Start the listener or join the running one. Every successful call must be paired
+     * with {@link #stop(FileOAuth2Runtime)}, the listener stops when the last runtime stopped it.
+     *
+     * @param runtime Runtime receiving callbacks of its clients
+     * @param callbackHandler Handler of the runtime's authorization code callbacks
+     * @return true if the listener is running
+     */
+    synchronized boolean start(FileOAuth2Runtime runtime, HttpHandler callbackHandler) {
+        if (server == null) {
+            try {
+                server = HttpServer.create(new InetSocketAddress(CourseraOAuth2Constants.PORT), 0);
+                server.createContext("/callback", this::handle);
+                callbackExecutor = Executors.newFixedThreadPool(1);
+                server.setExecutor(callbackExecutor);
+                server.start();
+                logger.info("Server listener started at port: {}", CourseraOAuth2Constants.PORT);
+            } catch (IOException e) {
+                server = null;
+                logger.error("Start server listener error: {}", e.getMessage());
+                return false;
+            }
+        }
+        routes.computeIfAbsent(runtime, r -> new Route(callbackHandler)).shares++;
+        return true;
+    }
+
+    /**
+     * Route callbacks of a client to a runtime that started the listener
+     *
+     * @param clientId Client id
+     * @param runtime Runtime generating tokens for the client
+     */
+    synchronized void expect(String clientId, FileOAuth2Runtime runtime) {
+        if (routes.containsKey(runtime)) {
+            expectedClients.put(clientId, runtime);
+        }
+    }
+
+    synchronized void stop(FileOAuth2Runtime runtime) {
+        Route route = routes.get(runtime);
+        if (route != null && --route.shares == 0) {
+            detach(runtime);
+        }
+    }
+
+    /**
+     * Drop every share of a runtime in the listener
+     *
+     * @param runtime Runtime being shut down
+     */
+    synchronized void detach(FileOAuth2Runtime runtime) {
+        routes.remove(runtime);
+        expectedClients.values().removeIf(runtime::equals);
+        if (routes.isEmpty() && server != null) {
+            logger.info("Server is shutdown...");
+            server.stop(0);
+            callbackExecutor.shutdown();
+            server = null;
+            callbackExecutor = null;
+        }
+    }
+
+    synchronized boolean isRunning() {
+        return server != null;
+    }
+
+    synchronized boolean isAttached(FileOAuth2Runtime runtime) {
+        return routes.containsKey(runtime);
+    }
+
+    private void handle(HttpExchange t) throws IOException {
+        HttpHandler callbackHandler = route(getClientId(t.getRequestURI().getRawQuery()));
+        if (callbackHandler != null) {
+            callbackHandler.handle(t);
+        } else {
+            logger.error("Callback of unknown client: {}", t.getRequestURI());
+            byte[] body = "Client config not found. Check application logs for details."
+                    .getBytes(StandardCharsets.UTF_8);
+            try (OutputStream responseBody = t.getResponseBody()) {
+                t.sendResponseHeaders(400, body.length);
+                responseBody.write(body);
+            }
+        }
+    }
+
+    private HttpHandler route(String clientId) {
+        List<Map.Entry<FileOAuth2Runtime, Route>> candidates;
+        synchronized (this) {
+            if (clientId == null) {
+                return null;
+            }
+            FileOAuth2Runtime runtime = expectedClients.get(clientId);
+            if (runtime != null) {
+                return routes.get(runtime).callbackHandler;
+            }
+            candidates = new ArrayList<>(routes.entrySet());
+        }
+        // config lookups read files, keep them out of the lock
+        for (Map.Entry<FileOAuth2Runtime, Route> candidate : candidates) {
+            if (FileOAuth2Utils.getClientConfigByNameOrId(candidate.getKey().getTokenCacheDir(), clientId) != null) {
+                return candidate.getValue().callbackHandler;
+            }
+        }
+        return null;
+    }
+
+    private static String getClientId(String rawQuery) {
+        if (rawQuery == null) {
+            return null;
+        }
+        for (String param : rawQuery.split("&")) {
+            String[] pair = param.split("=", 2);
+            if (pair.length == 2 && pair[0].equals(CourseraOAuth2Constants.CLIENT_ID_KEY) && !pair[1].isEmpty()) {
+                return pair[1];
+            }
+        }
+        return null;
+    }
+
+    private static final class Route {
+        private final HttpHandler callbackHandler;
+        private int shares;
+
+        private Route(HttpHandler callbackHandler) {
+            this.callbackHandler = callbackHandler;
+        }
+    }
+}
@@ -0,0 +1,67 @@
+package com.coursera.oauth2_0.service;
+
+import com.coursera.oauth2_0.model.AuthTokens;
+import com.coursera.oauth2_0.util.FileStamp;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Compact in-memory form of client authentication tokens: tokens are kept as byte arrays
+ * and expiration time as primitive milliseconds, parsed once when the entry is cached.
+ * Entries remember the version of the token file they were loaded from as primitive fields,
+ * a negative size standing for an unknown version.
+ *
+ * @author Viktor Yurlov
+ */
+final class CompactAuthTokens {
+
+    private final byte[] refreshToken;
+    private final byte[] accessToken;
+    private final long expiredAt;
+    private final long lastModifiedNanos;
+    private final long size;
+    private final int fileKeyHash;
+
+    private CompactAuthTokens(byte[] refreshToken, byte[] accessToken, long expiredAt, FileStamp version) {
+        this.refreshToken = refreshToken;
+        this.accessToken = accessToken;
+        this.expiredAt = expiredAt;
+        this.lastModifiedNanos = version != null ? version.getLastModifiedNanos() : 0;
+        this.size = version != null ? version.getSize() : -1;
+        this.fileKeyHash = version != null ? version.getFileKeyHash() : 0;
+    }
+
+    static CompactAuthTokens of(AuthTokens authTokens, FileStamp version) {
+        return new CompactAuthTokens(
+                authTokens.getRefreshToken().getBytes(StandardCharsets.UTF_8),
+                authTokens.getAccessToken().getBytes(StandardCharsets.UTF_8),
+                Long.parseLong(authTokens.getExpiredIn()),
+                version);
+    }
+
+    /**
+     * @param version Current version of the token file, null if unknown
+     * @return true if the entry was loaded from the given, known version of the token file
+     */
+    boolean isLoadedFrom(FileStamp version) {
+        return version != null
+                && size >= 0
+                && size == version.getSize()
+                && lastModifiedNanos == version.getLastModifiedNanos()
+                && fileKeyHash == version.getFileKeyHash();
+    }
+
+    boolean isExpired(long now) {
+        return expiredAt < now;
+    }
+
+    String getAccessToken() {
+        return new String(accessToken, StandardCharsets.UTF_8);
+    }
+
+    AuthTokens toAuthTokens() {
+        return new AuthTokens(
+                new String(refreshToken, StandardCharsets.UTF_8),
+                getAccessToken(),
+                String.valueOf(expiredAt));
+    }
+}
@@ -12,7 +12,7 @@ import java.util.Set;
  *
  * @author Viktor Yurlov
  */
-public interface CourseraOAuth2Service {
+public interface CourseraOAuth2Service extends AutoCloseable {
 
     /**
      * Add new client config
@@ -32,14 +32,15 @@ public interface CourseraOAuth2Service {
      * Delete client config by client name
      *
      * @param clientName Client name
+     * @return true if a config or tokens of the client were deleted, false if the client is unknown
      */
-    void deleteClientConfig(String clientName);
+    boolean deleteClientConfig(String clientName);
 
     /**
      * Generate authentication tokens
      *
      * @param clientName Client name
-     * @throws TokenNotGeneratedException if any error occured in process
+     * @throws TokenNotGeneratedException if any error occured in process or the callback listener is not started
      */
     void generateAuthTokens(String clientName) throws TokenNotGeneratedException;
 
@@ -67,9 +68,34 @@ public interface CourseraOAuth2Service {
     List<ClientConfig> getClientConfigs();
 
     /**
-     * Stop server for listening callback
+     * Stop server for listening callback. The server is shared by all services
+     * and keeps running until every service that started it through generateAuthTokens stopped it or was closed.
      *
      */
     void stopServerCallbackListener();
 
+    /**
+     * Subscribe to authentication tokens events: tokens created, refreshed,
+     * failed to refresh or deleted for a client
+     *
+     * @param listener Tokens events listener
+     */
+    void addAuthTokensListener(AuthTokensListener listener);
+
+    /**
+     * Unsubscribe from authentication tokens events
+     *
+     * @param listener Tokens events listener
+     */
+    void removeAuthTokensListener(AuthTokensListener listener);
+
+    /**
+     * Release resources shared with other services of the same configuration.
+     * The HTTP transport and tokens cache are shut down with the last service of the configuration,
+     * the callback listener with the last service using it.
+     * Other methods of a closed service throw {@link IllegalStateException}.
+     */
+    @Override
+    void close();
+
 }
@@ -1,12 +1,61 @@
 package com.coursera.oauth2_0.service;
 
+import com.coursera.oauth2_0.util.CourseraOAuth2Constants;
 import com.coursera.oauth2_0.util.CourseraOAuth2ServiceType;
+import com.coursera.oauth2_0.util.FileOAuth2Utils;
+import java.util.HashMap;
+import java.util.Map;
+import lombok.AllArgsConstructor;
+import lombok.EqualsAndHashCode;
 
+/**
+ * Factory of Coursera OAuth2 services. Services created for the same type and configuration
+ * share one runtime, which is shut down when the last of them is closed. All runtimes share
+ * one callback listener, since the Coursera redirect URI names a fixed port.
+ *
+ * @author Viktor Yurlov
+ */
 public class CourseraOAuth2ServiceFactory {
+
+    private static final Map<RuntimeKey, FileOAuth2Runtime> runtimes = new HashMap<>();
+
+    private static final CallbackListener callbackListener = new CallbackListener();
+
     public static CourseraOAuth2Service getInstance(CourseraOAuth2ServiceType type) {
         if (type.equals(CourseraOAuth2ServiceType.FILE)) {
-            return new FileOAuth2Service();
+            return new FileOAuth2Service(acquireRuntime(new RuntimeKey(
+                    type,
+                    FileOAuth2Utils.getTokenCacheDir(),
+                    System.getProperty(
+                            CourseraOAuth2Constants.AUTH_TOKEN_URI_PROPERTY,
+                            CourseraOAuth2Constants.COURSERA_AUTH_TOKEN_URI),
+                    Long.getLong(
+                            CourseraOAuth2Constants.TOKENS_CACHE_SIZE_PROPERTY,
+                            CourseraOAuth2Constants.DEFAULT_TOKENS_CACHE_SIZE))));
         }
         return null;
     }
+
+    private static synchronized FileOAuth2Runtime acquireRuntime(RuntimeKey key) {
+        FileOAuth2Runtime runtime = runtimes.computeIfAbsent(
+                key, k -> new FileOAuth2Runtime(k.tokenCacheDir, k.authTokenURI, k.tokensCacheSize, callbackListener));
+        runtime.retain();
+        return runtime;
+    }
+
+    static synchronized void releaseRuntime(FileOAuth2Runtime runtime) {
+        if (runtime.release() == 0) {
+            runtimes.values().remove(runtime);
+            runtime.shutdown();
+        }
+    }
+
+    @AllArgsConstructor
+    @EqualsAndHashCode
+    private static final class RuntimeKey {
+        private final CourseraOAuth2ServiceType type;
+        private final String tokenCacheDir;
+        private final String authTokenURI;
+        private final long tokensCacheSize;
+    }
 }
@@ -0,0 +1,156 @@
+package com.coursera.oauth2_0.service;
+
+import com.coursera.oauth2_0.util.CourseraOAuth2Constants;
+import com.coursera.oauth2_0.util.FileOAuth2Utils;
+import com.sun.net.httpserver.HttpHandler;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import lombok.AccessLevel;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import org.springframework.web.client.RestTemplate;
+
+/**
+ * State shared by all file services created for the same configuration: token store directory,
+ * HTTP transport, tokens cache, events dispatcher, striped refresh locks and recent refresh failures.
+ * Authorization code callbacks of its clients reach it through the process-wide {@link CallbackListener}.
+ * Reference counted by {@link CourseraOAuth2ServiceFactory}, shut down when the last service is closed.
+ *
+ * @author Viktor Yurlov
+ */
+@Getter
+final class FileOAuth2Runtime {
+
+    private static final int REFRESH_LOCK_STRIPES = 64;
+
+    private static final long REFRESH_FAILURE_BACKOFF_MILLIS = TimeUnit.SECONDS.toMillis(5);
+
+    private final String tokenCacheDir;
+
+    private final String authTokenURI;
+
+    private final RestTemplate restTemplate = new RestTemplate();
+
+    private final AuthTokensCache tokensCache;
+
+    private final AuthTokensEventPublisher eventPublisher =
+            new AuthTokensEventPublisher(CourseraOAuth2Constants.EVENT_BUFFER_CAPACITY);
+
+    @Getter(AccessLevel.NONE)
+    private final Object[] refreshLocks = new Object[REFRESH_LOCK_STRIPES];
+
+    @Getter(AccessLevel.NONE)
+    private final ConcurrentMap<String, RefreshFailure> refreshFailures = new ConcurrentHashMap<>();
+
+    @Getter(AccessLevel.NONE)
+    private final CallbackListener callbackListener;
+
+    @Getter(AccessLevel.NONE)
+    private int references;
+
+    FileOAuth2Runtime(String tokenCacheDir,
+                      String authTokenURI,
+                      long tokensCacheSize,
+                      CallbackListener callbackListener) {
+        this.tokenCacheDir = tokenCacheDir;
+        this.authTokenURI = authTokenURI;
+        this.callbackListener = callbackListener;
+        this.tokensCache = new AuthTokensCache(
+                tokensCacheSize,
+                clientName -> FileOAuth2Utils.getAuthTokensFromFile(tokenCacheDir, clientName),
+                clientName -> FileOAuth2Utils.getAuthTokensFileStamp(tokenCacheDir, clientName));
+        for (int i = 0; i < REFRESH_LOCK_STRIPES; i++) {
+            refreshLocks[i] = new Object();
+        }
+    }
+
+    /**
+     * Get the monitor serializing refresh and delete of a client. Monitors are striped by client name
+     * and never replaced, so every thread working on the same client always contends on the same one.
+     *
+     * @param clientName Client name
+     * @return Refresh monitor of the client
+     */
+    Object getRefreshLock(String clientName) {
+        int hash = clientName.hashCode();
+        return refreshLocks[(hash ^ (hash >>> 16)) & (REFRESH_LOCK_STRIPES - 1)];
+    }
+
+    /**
+     * Check whether a refresh with the given refresh token failed recently. Callers that waited
+     * on the refresh lock of a failed refresh take its outcome instead of sending their own request.
+     *
+     * @param clientName Client name
+     * @param refreshToken Refresh token the caller would refresh with
+     * @return true if the same refresh failed within the backoff period
+     */
+    boolean isRefreshBackedOff(String clientName, String refreshToken) {
+        RefreshFailure failure = refreshFailures.get(clientName);
+        if (failure == null) {
+            return false;
+        } else if (failure.refreshToken.equals(refreshToken)
+                && System.currentTimeMillis() - failure.failedAt < REFRESH_FAILURE_BACKOFF_MILLIS) {
+            return true;
+        }
+        refreshFailures.remove(clientName, failure);
+        return false;
+    }
+
+    void recordRefreshFailure(String clientName, String refreshToken) {
+        refreshFailures.put(clientName, new RefreshFailure(refreshToken, System.currentTimeMillis()));
+    }
+
+    void clearRefreshFailure(String clientName) {
+        refreshFailures.remove(clientName);
+    }
+
+    /**
+     * Start the callback listener or join the running one. Every successful call must be paired
+     * with {@link #stopCallbackListener()}, the runtime stops receiving callbacks when the last caller stopped it.
+     *
+     * @param callbackHandler Handler of authorization code callbacks of this runtime
+     * @return true if the listener is running
+     */
+    boolean startCallbackListener(HttpHandler callbackHandler) {
+        return callbackListener.start(this, callbackHandler);
+    }
+
+    /**
+     * Route callbacks of a client to this runtime, even if other runtimes know the client too
+     *
+     * @param clientId Client id
+     */
+    void expectCallback(String clientId) {
+        callbackListener.expect(clientId, this);
+    }
+
+    void stopCallbackListener() {
+        callbackListener.stop(this);
+    }
+
+    boolean isCallbackListenerRunning() {
+        return callbackListener.isAttached(this);
+    }
+
+    int retain() {
+        return ++references;
+    }
+
+    int release() {
+        return --references;
+    }
+
+    synchronized void shutdown() {
+        callbackListener.detach(this);
+        eventPublisher.shutdown();
+        tokensCache.invalidateAll();
+        refreshFailures.clear();
+    }
+
+    @AllArgsConstructor
+    private static final class RefreshFailure {
+        private final String refreshToken;
+        private final long failedAt;
+    }
+}
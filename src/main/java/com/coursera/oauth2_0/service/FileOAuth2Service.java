@@ -4,19 +4,23 @@ import com.coursera.oauth2_0.exception.CreateClientAppException;
 import com.coursera.oauth2_0.exception.TokenNotGeneratedException;
 import com.coursera.oauth2_0.model.AuthTokens;
 import com.coursera.oauth2_0.model.ClientConfig;
+import com.coursera.oauth2_0.util.AuthTokensEventType;
 import com.coursera.oauth2_0.util.CourseraOAuth2Constants;
 import com.coursera.oauth2_0.util.FileOAuth2Utils;
 import com.sun.net.httpserver.HttpExchange;
 import com.sun.net.httpserver.HttpHandler;
-import com.sun.net.httpserver.HttpServer;
 import java.awt.Desktop;
 import java.io.IOException;
-import java.net.InetSocketAddress;
+import java.io.OutputStream;
 import java.net.URI;
+import java.nio.charset.StandardCharsets;
 import java.util.List;
 import java.util.Set;
-import java.util.concurrent.Executors;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+import lombok.AccessLevel;
 import lombok.Getter;
+import org.json.JSONException;
 import org.json.JSONObject;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -28,11 +32,12 @@ import org.springframework.http.ResponseEntity;
 import org.springframework.util.LinkedMultiValueMap;
 import org.springframework.util.MultiValueMap;
 import org.springframework.util.StringUtils;
+import org.springframework.web.client.RestClientException;
 import org.springframework.web.client.RestClientResponseException;
-import org.springframework.web.client.RestTemplate;
 
 /**
- * Implementation of service for managing Coursera authentication tokens
+ * Implementation of service for managing Coursera authentication tokens.
+ * Instances are handles to a {@link FileOAuth2Runtime} shared through {@link CourseraOAuth2ServiceFactory}.
  *
  * @author Viktor Yurlov
  */
@@ -41,9 +46,21 @@ final class FileOAuth2Service implements CourseraOAuth2Service {
 
     private static final Logger logger = LoggerFactory.getLogger(FileOAuth2Service.class);
 
-    private static final RestTemplate restTemplate = new RestTemplate();
+    private final FileOAuth2Runtime runtime;
 
-    private HttpServer server;
+    private final List<AuthTokensListener> listeners = new CopyOnWriteArrayList<>();
+
+    private final AtomicBoolean closed = new AtomicBoolean();
+
+    @Getter(AccessLevel.NONE)
+    private final Object callbackListenerLock = new Object();
+
+    @Getter(AccessLevel.NONE)
+    private boolean callbackListening;
+
+    FileOAuth2Service(FileOAuth2Runtime runtime) {
+        this.runtime = runtime;
+    }
 
     /**
      * Add new client config
@@ -59,6 +76,7 @@ final class FileOAuth2Service implements CourseraOAuth2Service {
                                       String clientId,
                                       String clientSecret,
                                       Set<String> scopes) throws CreateClientAppException {
+        checkOpen();
 
         for (String s : scopes) {
             if (!s.equals(CourseraOAuth2Constants.SCOPE_VIEW_PROFILE) &&
@@ -76,7 +94,8 @@ final class FileOAuth2Service implements CourseraOAuth2Service {
             scopes.add(CourseraOAuth2Constants.SCOPE_VIEW_PROFILE);
         }
 
-        FileOAuth2Utils.writeClientConfigToFile(clientName, clientId, clientSecret, scopes);
+        FileOAuth2Utils.writeClientConfigToFile(
+                runtime.getTokenCacheDir(), clientName, clientId, clientSecret, scopes);
         logger.info("Client {} successfully added.", clientName);
     }
 
@@ -84,10 +103,21 @@ final class FileOAuth2Service implements CourseraOAuth2Service {
      * Delete client config by client name
      *
      * @param clientName Client name
+     * @return true if a config or tokens of the client were deleted, false if the client is unknown
      */
     @Override
-    public final void deleteClientConfig(String clientName) {
-        FileOAuth2Utils.deleteClientConfig(clientName);
+    public final boolean deleteClientConfig(String clientName) {
+        checkOpen();
+        boolean isDeleted;
+        synchronized (runtime.getRefreshLock(clientName)) {
+            isDeleted = FileOAuth2Utils.deleteClientConfig(runtime.getTokenCacheDir(), clientName);
+            runtime.getTokensCache().invalidate(clientName);
+            runtime.clearRefreshFailure(clientName);
+        }
+        if (isDeleted) {
+            runtime.getEventPublisher().publish(clientName, AuthTokensEventType.DELETED, null);
+        }
+        return isDeleted;
     }
 
     /**
@@ -98,25 +128,20 @@ final class FileOAuth2Service implements CourseraOAuth2Service {
      */
     @Override
     public final void generateAuthTokens(String clientName) throws TokenNotGeneratedException {
-        ClientConfig config = FileOAuth2Utils.getClientConfigByNameOrId(clientName);
+        checkOpen();
+        ClientConfig config = FileOAuth2Utils.getClientConfigByNameOrId(runtime.getTokenCacheDir(), clientName);
         if (config != null) {
             String courseraCodeURI = String.format(CourseraOAuth2Constants.COURSERA_CODE_URI,
                     config.getClientScope(),
                     CourseraOAuth2Constants.COURSERA_CALLBACK_URI + config.getClientId(),
                     config.getClientId());
 
-                if (server == null) {
-                    try {
-                        server = HttpServer.create(new InetSocketAddress(CourseraOAuth2Constants.PORT), 0);
-                        server.createContext("/callback", new CodeCallbackHandler());
-                        server.setExecutor(Executors.newFixedThreadPool(1));
-                        server.start();
-                        logger.info("Server listener started at port: {}", CourseraOAuth2Constants.PORT);
-                    } catch (IOException e) {
-                        logger.error("Start server listener error: {}", e.getMessage());
-
-                    }
-                }
+            if (!startCallbackListener()) {
+                throw new TokenNotGeneratedException(
+                        "Failed to generate new tokens: callback listener is not started at port " +
+                                CourseraOAuth2Constants.PORT + ".");
+            }
+            runtime.expectCallback(config.getClientId());
 
             try {
                 Desktop desktop = java.awt.Desktop.getDesktop();
@@ -131,29 +156,48 @@ final class FileOAuth2Service implements CourseraOAuth2Service {
     }
 
     /**
-     * Get client authentication tokens
+     * Get client authentication tokens from the tokens cache, falling back to the token file
+     * if the client is not cached or its token file changed
      *
      * @param clientName Client name
      * @return AuthTokens model
      */
     @Override
     public final AuthTokens getAuthTokens(String clientName) {
-        return FileOAuth2Utils.getAuthTokensFromFile(clientName);
+        checkOpen();
+        CompactAuthTokens authTokens = runtime.getTokensCache().get(clientName);
+        return authTokens != null ? authTokens.toAuthTokens() : null;
     }
 
     /**
-     * Get client access token
+     * Get client access token. Concurrent callers that find the same expired token
+     * wait for a single refresh request instead of sending one each. If that request fails, they share
+     * its outcome and no new request is sent with the same refresh token for a few seconds.
+     * An expired token is refreshed with the refresh token read from the store, never with a cached one.
      *
      * @param clientName Client name
      * @return Access token
      */
     @Override
     public final String getAccessToken(String clientName) {
-        AuthTokens authTokens = getAuthTokens(clientName);
+        checkOpen();
+        CompactAuthTokens authTokens = runtime.getTokensCache().get(clientName);
         if (authTokens != null) {
-            if (Long.parseLong(authTokens.getExpiredIn()) < System.currentTimeMillis()) {
-                logger.info("Access token is expired. Start generating new one.");
-                return refreshAccessToken(authTokens, clientName);
+            if (authTokens.isExpired(System.currentTimeMillis())) {
+                synchronized (runtime.getRefreshLock(clientName)) {
+                    // the refresh token must come from the store, another process may have rotated it
+                    authTokens = runtime.getTokensCache().reload(clientName);
+                    if (authTokens == null) {
+                        return null;
+                    } else if (authTokens.isExpired(System.currentTimeMillis())) {
+                        AuthTokens expiredTokens = authTokens.toAuthTokens();
+                        if (runtime.isRefreshBackedOff(clientName, expiredTokens.getRefreshToken())) {
+                            return null;
+                        }
+                        logger.info("Access token is expired. Start generating new one.");
+                        return refreshAccessToken(expiredTokens, clientName);
+                    }
+                }
             }
             return authTokens.getAccessToken();
         } else {
@@ -168,13 +212,16 @@ final class FileOAuth2Service implements CourseraOAuth2Service {
      */
     @Override
     public final List<ClientConfig> getClientConfigs() {
-        return FileOAuth2Utils.getClientConfigsFromConfigFile();
+        checkOpen();
+        return FileOAuth2Utils.getClientConfigsFromConfigFile(runtime.getTokenCacheDir());
     }
 
     private String refreshAccessToken(AuthTokens authTokens, String clientName) {
-        ClientConfig config = FileOAuth2Utils.getClientConfigByNameOrId(clientName);
+        ClientConfig config = FileOAuth2Utils.getClientConfigByNameOrId(runtime.getTokenCacheDir(), clientName);
         if (config == null) {
             logger.error("Client config not found. Please add configuration.");
+            runtime.recordRefreshFailure(clientName, authTokens.getRefreshToken());
+            runtime.getEventPublisher().publish(clientName, AuthTokensEventType.REFRESH_FAILED, authTokens);
             return null;
         }
 
@@ -193,16 +240,16 @@ final class FileOAuth2Service implements CourseraOAuth2Service {
             HttpEntity<Object> tokenRequestEntity = getCourseraTokenRequestEntity(tokenRequestPayload);
             logger.info("Sending request for refresh access token: {} {} {}",
                     HttpMethod.POST,
-                    CourseraOAuth2Constants.COURSERA_AUTH_TOKEN_URI,
+                    runtime.getAuthTokenURI(),
                     tokenRequestEntity);
 
-            ResponseEntity<String> courseraTokenApiResponse = restTemplate.exchange(
-                    CourseraOAuth2Constants.COURSERA_AUTH_TOKEN_URI,
+            ResponseEntity<String> courseraTokenApiResponse = runtime.getRestTemplate().exchange(
+                    runtime.getAuthTokenURI(),
                     HttpMethod.POST,
                     tokenRequestEntity,
                     String.class);
 
-            newCourseraAccessToken = getCourseraRequiredToken(
+            String accessToken = getCourseraRequiredToken(
                     courseraTokenApiResponse,
                     CourseraOAuth2Constants.ACCESS_TOKEN_KEY);
 
@@ -210,17 +257,26 @@ final class FileOAuth2Service implements CourseraOAuth2Service {
                     courseraTokenApiResponse,
                     CourseraOAuth2Constants.EXPIRES_IN));
             expiredTime = System.currentTimeMillis() + (expiredIn * 1000);
+            newCourseraAccessToken = accessToken;
         } catch (RestClientResponseException ex) {
             String accessTokenException = String.format(
                     "New access token is not generated using refresh token: %s", ex.getResponseBodyAsString());
             logger.error(accessTokenException);
+        } catch (RestClientException | JSONException | NumberFormatException | ClassCastException ex) {
+            logger.error("New access token is not generated using refresh token: {}", ex.getMessage());
         }
         if (newCourseraAccessToken != null) {
-            FileOAuth2Utils.saveAuthTokens(
-                    clientName, new AuthTokens(
-                            authTokens.getRefreshToken(),
-                            newCourseraAccessToken,
-                            String.valueOf(expiredTime)));
+            AuthTokens refreshedTokens = new AuthTokens(
+                    authTokens.getRefreshToken(),
+                    newCourseraAccessToken,
+                    String.valueOf(expiredTime));
+            FileOAuth2Utils.saveAuthTokens(runtime.getTokenCacheDir(), clientName, refreshedTokens);
+            runtime.getTokensCache().reload(clientName);
+            runtime.clearRefreshFailure(clientName);
+            runtime.getEventPublisher().publish(clientName, AuthTokensEventType.REFRESHED, refreshedTokens);
+        } else {
+            runtime.recordRefreshFailure(clientName, authTokens.getRefreshToken());
+            runtime.getEventPublisher().publish(clientName, AuthTokensEventType.REFRESH_FAILED, authTokens);
         }
         return newCourseraAccessToken;
     }
@@ -250,15 +306,80 @@ final class FileOAuth2Service implements CourseraOAuth2Service {
         return (String) courseraTokenJsonObj.get(token);
     }
 
+    /**
+     * Stop the callback listener started by this service. The listener is shared by all services
+     * and shut down when none of them needs it any more.
+     */
     @Override
     public final void stopServerCallbackListener() {
-        if (server != null) {
-            logger.info("Server is shutdown...");
-            server.stop(0);
+        checkOpen();
+        releaseCallbackListener();
+    }
+
+    @Override
+    public final void addAuthTokensListener(AuthTokensListener listener) {
+        checkOpen();
+        if (listener != null) {
+            listeners.add(listener);
+            runtime.getEventPublisher().addListener(listener);
         }
     }
 
-    private class CodeCallbackHandler implements HttpHandler {
+    @Override
+    public final void removeAuthTokensListener(AuthTokensListener listener) {
+        checkOpen();
+        listeners.remove(listener);
+        runtime.getEventPublisher().removeListener(listener);
+    }
+
+    /**
+     * Release the shared runtime, removing listeners registered through this service
+     * and stopping its use of the callback listener
+     */
+    @Override
+    public final void close() {
+        if (closed.compareAndSet(false, true)) {
+            for (AuthTokensListener listener : listeners) {
+                runtime.getEventPublisher().removeListener(listener);
+            }
+            listeners.clear();
+            releaseCallbackListener();
+            CourseraOAuth2ServiceFactory.releaseRuntime(runtime);
+        }
+    }
+
+    private void checkOpen() {
+        if (closed.get()) {
+            throw new IllegalStateException("Coursera OAuth2 service is closed");
+        }
+    }
+
+    private boolean startCallbackListener() {
+        synchronized (callbackListenerLock) {
+            if (!callbackListening) {
+                callbackListening = runtime.startCallbackListener(new CodeCallbackHandler(runtime));
+            }
+            return callbackListening;
+        }
+    }
+
+    private void releaseCallbackListener() {
+        synchronized (callbackListenerLock) {
+            if (callbackListening) {
+                callbackListening = false;
+                runtime.stopCallbackListener();
+            }
+        }
+    }
+
+    private static class CodeCallbackHandler implements HttpHandler {
+
+        private final FileOAuth2Runtime runtime;
+
+        private CodeCallbackHandler(FileOAuth2Runtime runtime) {
+            this.runtime = runtime;
+        }
+
         @Override
         public void handle(HttpExchange t) {
             URI requestURI = t.getRequestURI();
@@ -268,10 +389,11 @@ final class FileOAuth2Service implements CourseraOAuth2Service {
             String[] clientIdPair = params[0].split(paramSeparator);
             String[] codePair = params[1].split(paramSeparator);
 
+            boolean isGenerated = false;
             if (!StringUtils.isEmpty(clientIdPair[1]) && !StringUtils.isEmpty(codePair[1])) {
                 logger.info("Code from Coursera: {}", codePair[1]);
                 try {
-                    sendAuthTokensRequest(clientIdPair[1], codePair[1]);
+                    isGenerated = sendAuthTokensRequest(clientIdPair[1], codePair[1]);
                 } catch (TokenNotGeneratedException e) {
                     logger.error(e.getMessage());
                 }
@@ -279,10 +401,24 @@ final class FileOAuth2Service implements CourseraOAuth2Service {
                 logger.error("Code is not generated, check client id and secret key. " +
                         "Make sure you are logged to the right Coursera account.");
             }
+            sendCallbackResponse(t, isGenerated);
+        }
+
+        private void sendCallbackResponse(HttpExchange t, boolean isGenerated) {
+            byte[] body = (isGenerated
+                    ? "Auth tokens successfully generated. You can close this window."
+                    : "Auth tokens are not generated. Check application logs for details.")
+                    .getBytes(StandardCharsets.UTF_8);
+            try (OutputStream responseBody = t.getResponseBody()) {
+                t.sendResponseHeaders(isGenerated ? 200 : 400, body.length);
+                responseBody.write(body);
+            } catch (IOException e) {
+                logger.error("Error send callback response: {}", e.getMessage());
+            }
         }
 
-        private void sendAuthTokensRequest(String clientId, String courseraCode) throws TokenNotGeneratedException {
-            ClientConfig config = FileOAuth2Utils.getClientConfigByNameOrId(clientId);
+        private boolean sendAuthTokensRequest(String clientId, String courseraCode) throws TokenNotGeneratedException {
+            ClientConfig config = FileOAuth2Utils.getClientConfigByNameOrId(runtime.getTokenCacheDir(), clientId);
             if (config == null) {
                 throw new TokenNotGeneratedException("Client config not found. Please add configuration.");
             }
@@ -298,34 +434,44 @@ final class FileOAuth2Service implements CourseraOAuth2Service {
                     CourseraOAuth2Constants.COURSERA_CALLBACK_URI + config.getClientId());
             tokenRequestPayload.add(CourseraOAuth2Constants.ACCESS_TYPE_KEY, CourseraOAuth2Constants.ACCESS_TYPE_VALUE);
 
-            AuthTokens authTokens = new AuthTokens();
+            AuthTokens authTokens = null;
             try {
-                ResponseEntity<String> courseraTokenApiResponse = restTemplate.exchange(
-                        CourseraOAuth2Constants.COURSERA_AUTH_TOKEN_URI,
+                ResponseEntity<String> courseraTokenApiResponse = runtime.getRestTemplate().exchange(
+                        runtime.getAuthTokenURI(),
                         HttpMethod.POST,
                         getCourseraTokenRequestEntity(tokenRequestPayload),
                         String.class);
 
-                authTokens.setRefreshToken(
-                        getCourseraRequiredToken(courseraTokenApiResponse, CourseraOAuth2Constants.REFRESH_TOKEN_KEY));
-                authTokens.setAccessToken(
-                        getCourseraRequiredToken(courseraTokenApiResponse, CourseraOAuth2Constants.ACCESS_TOKEN_KEY));
+                String refreshToken =
+                        getCourseraRequiredToken(courseraTokenApiResponse, CourseraOAuth2Constants.REFRESH_TOKEN_KEY);
+                String accessToken =
+                        getCourseraRequiredToken(courseraTokenApiResponse, CourseraOAuth2Constants.ACCESS_TOKEN_KEY);
 
                 int expiredIn = Integer.parseInt(
                         getCourseraRequiredToken(courseraTokenApiResponse, CourseraOAuth2Constants.EXPIRES_IN));
-                authTokens.setExpiredIn(String.valueOf(System.currentTimeMillis() + (expiredIn * 1000)));
+                authTokens = new AuthTokens(
+                        refreshToken,
+                        accessToken,
+                        String.valueOf(System.currentTimeMillis() + (expiredIn * 1000)));
             } catch (RestClientResponseException ex) {
                 String tokenException = String.format(
                         "Coursera auth tokens are not generated : %s", ex.getResponseBodyAsString());
                 logger.error(tokenException);
+            } catch (RestClientException | JSONException | NumberFormatException | ClassCastException ex) {
+                logger.error("Coursera auth tokens are not generated : {}", ex.getMessage());
             }
 
-            if (!StringUtils.isEmpty(authTokens.getRefreshToken()) &&
+            if (authTokens != null &&
+                    !StringUtils.isEmpty(authTokens.getRefreshToken()) &&
                     !StringUtils.isEmpty(authTokens.getAccessToken())) {
 
-                FileOAuth2Utils.saveAuthTokens(config.getClientName(), authTokens);
+                FileOAuth2Utils.saveAuthTokens(runtime.getTokenCacheDir(), config.getClientName(), authTokens);
+                runtime.getTokensCache().reload(config.getClientName());
                 logger.info("Auth tokens successfully saved to file.");
+                runtime.getEventPublisher().publish(config.getClientName(), AuthTokensEventType.CREATED, authTokens);
+                return true;
             }
+            return false;
         }
     }
 }
@@ -0,0 +1,11 @@
+package com.coursera.oauth2_0.util;
+
+import lombok.Getter;
+
+@Getter
+public enum AuthTokensEventType {
+    CREATED,
+    REFRESHED,
+    REFRESH_FAILED,
+    DELETED
+}
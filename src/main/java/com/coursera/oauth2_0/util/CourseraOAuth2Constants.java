@@ -20,4 +20,10 @@ public class CourseraOAuth2Constants {
     public static final String COURSERA_AUTH_TOKEN_URI = "https://accounts.coursera.org/oauth2/v1/token";
     public static final String COURSERA_CALLBACK_URI = "http://localhost:9876/callback?client_id=";
     public static final int PORT = 9876;
+    public static final String TOKEN_CACHE_DIR_PROPERTY = "coaclient.cache.dir";
+    public static final String AUTH_TOKEN_URI_PROPERTY = "coaclient.token.uri";
+    public static final String TOKENS_CACHE_SIZE_PROPERTY = "coaclient.tokens.cache.size";
+    public static final long DEFAULT_TOKENS_CACHE_SIZE = 10000;
+    public static final int EVENT_BUFFER_CAPACITY = 1024;
+    public static final String EVENT_DISPATCHER_THREAD_NAME = "coaclient-tokens-events";
 }
\ No newline at end of file
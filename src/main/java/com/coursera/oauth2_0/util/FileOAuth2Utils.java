@@ -8,172 +8,326 @@ import java.io.File;
 import java.io.FileReader;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.io.Writer;
 import java.nio.file.Files;
-import java.nio.file.StandardOpenOption;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 import java.util.stream.Collectors;
-import java.util.stream.Stream;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.util.Base64Utils;
 
+/**
+ * File store for client configs and authentication tokens, safe for concurrent use within a JVM.
+ *
+ * Token files are guarded by read/write locks striped by client name, so different clients never contend.
+ * Config file changes go through a single writer which publishes an immutable snapshot per config file,
+ * readers use the snapshot without locking and reload it only when the file was changed outside of this JVM.
+ * Every operation has a variant bound to an explicit directory, the others use the directory
+ * named by {@link #getTokenCacheDir()} at the time of the call.
+ */
 public class FileOAuth2Utils {
 
     private static final Logger logger = LoggerFactory.getLogger(FileOAuth2Utils.class);
 
-    private static final String TOKEN_CACHE_DIR = System.getProperty("user.home") + File.separator + ".coursera";
+    private static final String DEFAULT_TOKEN_CACHE_DIR = System.getProperty("user.home") + File.separator + ".coursera";
     private static final String CONFIG_FILE ="coaclient.csv";
     private static final String TOKEN_FILE_SUFFIX = "_aout2.csv";
+    private static final String TMP_FILE_SUFFIX = ".tmp";
     private static final String SEPARATOR = ",";
+    private static final int TOKEN_LOCK_STRIPES = 64;
+
+    private static final ReadWriteLock[] tokenLocks = new ReadWriteLock[TOKEN_LOCK_STRIPES];
+    private static final Object configWriteLock = new Object();
+    private static final ConcurrentMap<String, ConfigSnapshot> configSnapshots = new ConcurrentHashMap<>();
+
+    static {
+        for (int i = 0; i < TOKEN_LOCK_STRIPES; i++) {
+            tokenLocks[i] = new ReentrantReadWriteLock();
+        }
+    }
 
     public static void writeClientConfigToFile(String clientName,
                                                String clientId,
                                                String secretKey,
                                                Set<String> scopes) throws CreateClientAppException {
+        writeClientConfigToFile(getTokenCacheDir(), clientName, clientId, secretKey, scopes);
+    }
 
-        if (getClientConfigByNameOrId(clientName) != null) {
-            throw new CreateClientAppException("A client with name: " + clientName + " already exists");
-        }
+    public static void writeClientConfigToFile(String tokenCacheDir,
+                                               String clientName,
+                                               String clientId,
+                                               String secretKey,
+                                               Set<String> scopes) throws CreateClientAppException {
 
-        File cacheDir = new File(TOKEN_CACHE_DIR);
-        if (!cacheDir.exists()) {
-            cacheDir.mkdir();
-        }
+        synchronized (configWriteLock) {
+            File config = new File(tokenCacheDir + File.separator + CONFIG_FILE);
+            List<ClientConfig> clientConfigs = new ArrayList<>();
+            if (config.exists()) {
+                try {
+                    clientConfigs.addAll(getConfigSnapshot(tokenCacheDir).clientConfigs);
+                } catch (IOException e) {
+                    throw new CreateClientAppException("Error read client configs from file: " + e.getMessage());
+                }
+            }
 
-        boolean isNewFile = false;
-        File config = new File(TOKEN_CACHE_DIR + File.separator + CONFIG_FILE);
-        if (!config.exists()) {
-            isNewFile = true;
-        }
-        try (FileWriter csvWriter = new FileWriter(config, true)) {
-            if (isNewFile) {
-                csvWriter.append(CourseraOAuth2Constants.CLIENT_APP_NAME);
-                csvWriter.append(SEPARATOR);
-                csvWriter.append(CourseraOAuth2Constants.CLIENT_ID_KEY);
-                csvWriter.append(SEPARATOR);
-                csvWriter.append(CourseraOAuth2Constants.CLIENT_SECRET_KEY);
-                csvWriter.append(SEPARATOR);
-                csvWriter.append(CourseraOAuth2Constants.SCOPE_PROFILE);
-                csvWriter.append("\n");
+            if (findClientConfig(clientConfigs, clientName) != null) {
+                throw new CreateClientAppException("A client with name: " + clientName + " already exists");
             }
 
-            csvWriter.append(clientName);
-            csvWriter.append(SEPARATOR);
-            csvWriter.append(clientId);
-            csvWriter.append(SEPARATOR);
-            csvWriter.append(secretKey);
-            csvWriter.append(SEPARATOR);
-            csvWriter.append(String.join("+", scopes));
-            csvWriter.append("\n");
+            File cacheDir = new File(tokenCacheDir);
+            if (!cacheDir.exists()) {
+                cacheDir.mkdir();
+            }
 
-            csvWriter.flush();
-        } catch (IOException e) {
-            throw new CreateClientAppException("Error write new client config to file: " + e.getMessage());
+            boolean isNewFile = !config.exists();
+            ClientConfig clientConfig = new ClientConfig(clientName, clientId, secretKey, String.join("+", scopes));
+            try (FileWriter csvWriter = new FileWriter(config, true)) {
+                if (isNewFile) {
+                    appendConfigHeader(csvWriter);
+                }
+                appendClientConfig(csvWriter, clientConfig);
+
+                csvWriter.flush();
+            } catch (IOException e) {
+                configSnapshots.remove(config.getPath());
+                throw new CreateClientAppException("Error write new client config to file: " + e.getMessage());
+            }
+
+            clientConfigs.add(clientConfig);
+            try {
+                publishConfigSnapshot(config, clientConfigs);
+            } catch (IOException e) {
+                configSnapshots.remove(config.getPath());
+            }
         }
     }
 
     public static void saveAuthTokens(String clientName,
                                       AuthTokens authTokens) {
-        File tokensFile = new File(TOKEN_CACHE_DIR + File.separator + clientName + TOKEN_FILE_SUFFIX);
-        if (tokensFile.exists()) {
-            tokensFile.delete();
-        }
+        saveAuthTokens(getTokenCacheDir(), clientName, authTokens);
+    }
 
-        try (FileWriter csvWriter = new FileWriter(tokensFile)) {
-            csvWriter.append(CourseraOAuth2Constants.REFRESH_TOKEN_KEY);
-            csvWriter.append(SEPARATOR);
-            csvWriter.append(CourseraOAuth2Constants.ACCESS_TOKEN_KEY);
-            csvWriter.append(SEPARATOR);
-            csvWriter.append(CourseraOAuth2Constants.EXPIRES_IN);
-            csvWriter.append("\n");
-            csvWriter.append(Base64Utils.encodeToString(authTokens.getRefreshToken().getBytes()));
-            csvWriter.append(SEPARATOR);
-            csvWriter.append(Base64Utils.encodeToString(authTokens.getAccessToken().getBytes()));
-            csvWriter.append(SEPARATOR);
-            csvWriter.append(authTokens.getExpiredIn());
-            csvWriter.append("\n");
-
-            csvWriter.flush();
+    public static void saveAuthTokens(String tokenCacheDir,
+                                      String clientName,
+                                      AuthTokens authTokens) {
+        File tokensFile = new File(tokenCacheDir + File.separator + clientName + TOKEN_FILE_SUFFIX);
+        File tmpFile = new File(tokensFile.getPath() + TMP_FILE_SUFFIX);
+
+        Lock lock = getTokenLock(clientName).writeLock();
+        lock.lock();
+        try {
+            try (FileWriter csvWriter = new FileWriter(tmpFile)) {
+                csvWriter.append(CourseraOAuth2Constants.REFRESH_TOKEN_KEY);
+                csvWriter.append(SEPARATOR);
+                csvWriter.append(CourseraOAuth2Constants.ACCESS_TOKEN_KEY);
+                csvWriter.append(SEPARATOR);
+                csvWriter.append(CourseraOAuth2Constants.EXPIRES_IN);
+                csvWriter.append("\n");
+                csvWriter.append(Base64Utils.encodeToString(authTokens.getRefreshToken().getBytes()));
+                csvWriter.append(SEPARATOR);
+                csvWriter.append(Base64Utils.encodeToString(authTokens.getAccessToken().getBytes()));
+                csvWriter.append(SEPARATOR);
+                csvWriter.append(authTokens.getExpiredIn());
+                csvWriter.append("\n");
+
+                csvWriter.flush();
+            }
+            replaceFile(tmpFile.toPath(), tokensFile.toPath());
         } catch (IOException e) {
             logger.error("Error while saving authentication tokens to file: {}", e.getMessage());
+        } finally {
+            lock.unlock();
         }
     }
 
     public static AuthTokens getAuthTokensFromFile(String clientAppName) {
-        File tokensFile = new File(TOKEN_CACHE_DIR + File.separator + clientAppName + TOKEN_FILE_SUFFIX);
-        if (!tokensFile.exists()) {
-            logger.error("File with {} tokens not found in path: {}. Please try to generate auth tokens.",
-                    clientAppName,
-                    tokensFile.toPath());
-            return null;
-        }
+        return getAuthTokensFromFile(getTokenCacheDir(), clientAppName);
+    }
 
-        try (BufferedReader csvReader = new BufferedReader(new FileReader(tokensFile.getPath()))) {
-            String row;
-            while ((row = csvReader.readLine()) != null) {
-                String[] splitRow = row.split(SEPARATOR);
-                if (!splitRow[0].equals(CourseraOAuth2Constants.REFRESH_TOKEN_KEY)) {
-                    byte[] decodedRefreshToken = Base64Utils.decode(splitRow[0].getBytes());
-                    byte[] decodedAccessToken = Base64Utils.decode(splitRow[1].getBytes());
-                    return new AuthTokens(
-                            new String(decodedRefreshToken),
-                            new String(decodedAccessToken),
-                            splitRow[2]);
+    public static AuthTokens getAuthTokensFromFile(String tokenCacheDir, String clientAppName) {
+        File tokensFile = new File(tokenCacheDir + File.separator + clientAppName + TOKEN_FILE_SUFFIX);
+
+        Lock lock = getTokenLock(clientAppName).readLock();
+        lock.lock();
+        try {
+            if (!tokensFile.exists()) {
+                logger.error("File with {} tokens not found in path: {}. Please try to generate auth tokens.",
+                        clientAppName,
+                        tokensFile.toPath());
+                return null;
+            }
+
+            try (BufferedReader csvReader = new BufferedReader(new FileReader(tokensFile.getPath()))) {
+                String row;
+                while ((row = csvReader.readLine()) != null) {
+                    String[] splitRow = row.split(SEPARATOR);
+                    if (!splitRow[0].equals(CourseraOAuth2Constants.REFRESH_TOKEN_KEY)) {
+                        byte[] decodedRefreshToken = Base64Utils.decode(splitRow[0].getBytes());
+                        byte[] decodedAccessToken = Base64Utils.decode(splitRow[1].getBytes());
+                        return new AuthTokens(
+                                new String(decodedRefreshToken),
+                                new String(decodedAccessToken),
+                                splitRow[2]);
+                    }
                 }
+            } catch (IOException e) {
+                logger.error("Error while read tokens file: {}", e.getMessage());
             }
-        } catch (IOException e) {
-            logger.error("Error while read tokens file: {}", e.getMessage());
+            return null;
+        } finally {
+            lock.unlock();
         }
-        return null;
     }
 
-    public static void deleteClientConfig(String clientName) {
-        try {
-            File file = new File(TOKEN_CACHE_DIR + File.separator + CONFIG_FILE);
-            List<String> out;
-            try (Stream<String> lines = Files.lines(file.toPath())) {
-                out = lines.filter(line -> !line.contains(clientName))
+    public static FileStamp getAuthTokensFileStamp(String clientAppName) {
+        return getAuthTokensFileStamp(getTokenCacheDir(), clientAppName);
+    }
+
+    /**
+     * Get version of the client tokens file. Read it before the tokens, so that tokens
+     * are never paired with a version newer than the one they were read from.
+     *
+     * @param tokenCacheDir Directory of the client config and token files
+     * @param clientAppName Client name
+     * @return Tokens file version or null if the client has no tokens file
+     */
+    public static FileStamp getAuthTokensFileStamp(String tokenCacheDir, String clientAppName) {
+        return FileStamp.ofExisting(
+                new File(tokenCacheDir + File.separator + clientAppName + TOKEN_FILE_SUFFIX).toPath());
+    }
+
+    public static boolean deleteClientConfig(String clientName) {
+        return deleteClientConfig(getTokenCacheDir(), clientName);
+    }
+
+    /**
+     * Delete client config and authentication tokens
+     *
+     * @param tokenCacheDir Directory of the client config and token files
+     * @param clientName Client name
+     * @return true if a config row or a tokens file of the client was removed
+     */
+    public static boolean deleteClientConfig(String tokenCacheDir, String clientName) {
+        synchronized (configWriteLock) {
+            File file = new File(tokenCacheDir + File.separator + CONFIG_FILE);
+            File tmpFile = new File(file.getPath() + TMP_FILE_SUFFIX);
+            try {
+                List<ClientConfig> clientConfigs = getConfigSnapshot(tokenCacheDir).clientConfigs;
+                List<ClientConfig> out = clientConfigs.stream()
+                        .filter(config -> !config.getClientName().equals(clientName))
                         .collect(Collectors.toList());
-            }
 
-            Files.write(file.toPath(), out, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+                boolean isConfigDeleted = out.size() != clientConfigs.size();
+                if (isConfigDeleted) {
+                    try (FileWriter csvWriter = new FileWriter(tmpFile)) {
+                        appendConfigHeader(csvWriter);
+                        for (ClientConfig config : out) {
+                            appendClientConfig(csvWriter, config);
+                        }
+                        csvWriter.flush();
+                    }
+                    replaceFile(tmpFile.toPath(), file.toPath());
+                    publishConfigSnapshot(file, out);
+                }
+
+                File tokensFile = new File(tokenCacheDir + File.separator + clientName + TOKEN_FILE_SUFFIX);
+                boolean isTokensDeleted;
+                Lock lock = getTokenLock(clientName).writeLock();
+                lock.lock();
+                try {
+                    isTokensDeleted = Files.deleteIfExists(tokensFile.toPath());
+                } finally {
+                    lock.unlock();
+                }
 
-            File tokensFile = new File(TOKEN_CACHE_DIR + File.separator + clientName + TOKEN_FILE_SUFFIX);
-            if (tokensFile.exists()) {
-                Files.delete(tokensFile.toPath());
+                if (isConfigDeleted || isTokensDeleted) {
+                    logger.info("Client {} successfully deleted.", clientName);
+                } else {
+                    logger.info("Client {} not found.", clientName);
+                }
+                return isConfigDeleted || isTokensDeleted;
+            } catch (IOException e) {
+                configSnapshots.remove(file.getPath());
+                logger.error(
+                        "Error while delete {} config in file: {}", clientName, e.getMessage());
+                return false;
             }
-            logger.info("Client {} successfully deleted.", clientName);
-        } catch (IOException e) {
-            logger.error(
-                    "Error while delete {} config in file: {}", clientName, e.getMessage());
         }
     }
 
     public static ClientConfig getClientConfigByNameOrId(String clientIdentifier) {
-        try (BufferedReader csvReader = new BufferedReader(new FileReader(
-                TOKEN_CACHE_DIR + File.separator + CONFIG_FILE))) {
-            String row;
-            while ((row = csvReader.readLine()) != null) {
-                String[] configRow = row.split(SEPARATOR);
-                if (!configRow[0].equals(CourseraOAuth2Constants.CLIENT_APP_NAME) &&
-                        (configRow[0].equals(clientIdentifier) || configRow[1].equals(clientIdentifier))) {
-                    return createClientConfig(configRow);
-                }
+        return getClientConfigByNameOrId(getTokenCacheDir(), clientIdentifier);
+    }
+
+    public static ClientConfig getClientConfigByNameOrId(String tokenCacheDir, String clientIdentifier) {
+        try {
+            ClientConfig config = findClientConfig(getConfigSnapshot(tokenCacheDir).clientConfigs, clientIdentifier);
+            if (config != null) {
+                return copyClientConfig(config);
             }
         } catch (IOException e) {
             logger.error(
-                    "Error while read config file in path: " + TOKEN_CACHE_DIR + File.separator + CONFIG_FILE +
+                    "Error while read config file in path: " + tokenCacheDir + File.separator + CONFIG_FILE +
                             ". Please add application before start generating tokens");
         }
         return null;
     }
 
     public static List<ClientConfig> getClientConfigsFromConfigFile() {
+        return getClientConfigsFromConfigFile(getTokenCacheDir());
+    }
+
+    public static List<ClientConfig> getClientConfigsFromConfigFile(String tokenCacheDir) {
         List<ClientConfig> clientConfigs = new ArrayList<>();
-        try (BufferedReader csvReader = new BufferedReader(new FileReader(
-                TOKEN_CACHE_DIR + File.separator + CONFIG_FILE))) {
+        try {
+            for (ClientConfig config : getConfigSnapshot(tokenCacheDir).clientConfigs) {
+                clientConfigs.add(copyClientConfig(config));
+            }
+        } catch (IOException e) {
+            logger.error(
+                    "Error while read config file in path: " + tokenCacheDir + File.separator + CONFIG_FILE +
+                            ". Please add application before start generating tokens");
+        }
+
+        return clientConfigs;
+    }
+
+    public static String getTokenCacheDir() {
+        return System.getProperty(CourseraOAuth2Constants.TOKEN_CACHE_DIR_PROPERTY, DEFAULT_TOKEN_CACHE_DIR);
+    }
+
+    private static ConfigSnapshot getConfigSnapshot(String tokenCacheDir) throws IOException {
+        File config = new File(tokenCacheDir + File.separator + CONFIG_FILE);
+        ConfigSnapshot snapshot = configSnapshots.get(config.getPath());
+        if (snapshot != null && snapshot.isCurrent(config)) {
+            return snapshot;
+        }
+
+        synchronized (configWriteLock) {
+            snapshot = configSnapshots.get(config.getPath());
+            if (snapshot == null || !snapshot.isCurrent(config)) {
+                snapshot = readConfigSnapshot(config);
+                configSnapshots.put(config.getPath(), snapshot);
+            }
+            return snapshot;
+        }
+    }
+
+    private static ConfigSnapshot readConfigSnapshot(File config) throws IOException {
+        BasicFileAttributes attributes = Files.readAttributes(config.toPath(), BasicFileAttributes.class);
+        List<ClientConfig> clientConfigs = new ArrayList<>();
+        try (BufferedReader csvReader = new BufferedReader(new FileReader(config))) {
             String row;
             while ((row = csvReader.readLine()) != null) {
                 String[] configRow = row.split(SEPARATOR);
@@ -181,13 +335,61 @@ public class FileOAuth2Utils {
                     clientConfigs.add(createClientConfig(configRow));
                 }
             }
-        } catch (IOException e) {
-            logger.error(
-                    "Error while read config file in path: " + TOKEN_CACHE_DIR + File.separator + CONFIG_FILE +
-                            ". Please add application before start generating tokens");
         }
+        return new ConfigSnapshot(clientConfigs, attributes);
+    }
 
-        return clientConfigs;
+    private static void publishConfigSnapshot(File config, List<ClientConfig> clientConfigs) throws IOException {
+        BasicFileAttributes attributes = Files.readAttributes(config.toPath(), BasicFileAttributes.class);
+        configSnapshots.put(config.getPath(), new ConfigSnapshot(clientConfigs, attributes));
+    }
+
+    private static ClientConfig findClientConfig(List<ClientConfig> clientConfigs, String clientIdentifier) {
+        for (ClientConfig config : clientConfigs) {
+            if (config.getClientName().equals(clientIdentifier) || config.getClientId().equals(clientIdentifier)) {
+                return config;
+            }
+        }
+        return null;
+    }
+
+    private static ReadWriteLock getTokenLock(String clientName) {
+        int hash = clientName.hashCode();
+        return tokenLocks[(hash ^ (hash >>> 16)) & (TOKEN_LOCK_STRIPES - 1)];
+    }
+
+    private static void replaceFile(Path source, Path target) throws IOException {
+        Files.move(source, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static void appendConfigHeader(Writer csvWriter) throws IOException {
+        csvWriter.append(CourseraOAuth2Constants.CLIENT_APP_NAME);
+        csvWriter.append(SEPARATOR);
+        csvWriter.append(CourseraOAuth2Constants.CLIENT_ID_KEY);
+        csvWriter.append(SEPARATOR);
+        csvWriter.append(CourseraOAuth2Constants.CLIENT_SECRET_KEY);
+        csvWriter.append(SEPARATOR);
+        csvWriter.append(CourseraOAuth2Constants.SCOPE_PROFILE);
+        csvWriter.append("\n");
+    }
+
+    private static void appendClientConfig(Writer csvWriter, ClientConfig config) throws IOException {
+        csvWriter.append(config.getClientName());
+        csvWriter.append(SEPARATOR);
+        csvWriter.append(config.getClientId());
+        csvWriter.append(SEPARATOR);
+        csvWriter.append(config.getClientSecretKey());
+        csvWriter.append(SEPARATOR);
+        csvWriter.append(config.getClientScope());
+        csvWriter.append("\n");
+    }
+
+    private static ClientConfig copyClientConfig(ClientConfig config) {
+        return new ClientConfig(
+                config.getClientName(),
+                config.getClientId(),
+                config.getClientSecretKey(),
+                config.getClientScope());
     }
 
     private static ClientConfig createClientConfig(String[] configRow) {
@@ -197,4 +399,21 @@ public class FileOAuth2Utils {
                 configRow[2],
                 configRow[3]);
     }
+
+    /**
+     * Immutable view of a config file, stamped with the version of the file it was read from
+     */
+    private static final class ConfigSnapshot {
+        private final List<ClientConfig> clientConfigs;
+        private final FileStamp stamp;
+
+        private ConfigSnapshot(List<ClientConfig> clientConfigs, BasicFileAttributes attributes) {
+            this.clientConfigs = Collections.unmodifiableList(new ArrayList<>(clientConfigs));
+            this.stamp = FileStamp.of(attributes);
+        }
+
+        private boolean isCurrent(File config) throws IOException {
+            return stamp.equals(FileStamp.of(config.toPath()));
+        }
+    }
 }
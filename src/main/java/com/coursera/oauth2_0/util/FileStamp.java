@@ -0,0 +1,46 @@
+package com.coursera.oauth2_0.util;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.concurrent.TimeUnit;
+import lombok.AllArgsConstructor;
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+import lombok.ToString;
+
+/**
+ * Version of a store file: modification time, size and file key hash, kept as primitives so that
+ * holders can copy them into their own fields. Files are replaced by atomic moves, so the file key
+ * also tells apart two versions of the same size written within one modification time tick.
+ */
+@AllArgsConstructor
+@Getter
+@EqualsAndHashCode
+@ToString
+public final class FileStamp {
+    private final long lastModifiedNanos;
+    private final long size;
+    private final int fileKeyHash;
+
+    static FileStamp of(BasicFileAttributes attributes) {
+        Object fileKey = attributes.fileKey();
+        return new FileStamp(
+                attributes.lastModifiedTime().to(TimeUnit.NANOSECONDS),
+                attributes.size(),
+                fileKey != null ? fileKey.hashCode() : 0);
+    }
+
+    static FileStamp of(Path file) throws IOException {
+        return of(Files.readAttributes(file, BasicFileAttributes.class));
+    }
+
+    static FileStamp ofExisting(Path file) {
+        try {
+            return of(file);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+}
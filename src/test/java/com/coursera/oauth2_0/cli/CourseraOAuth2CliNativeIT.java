@@ -0,0 +1,118 @@
+package com.coursera.oauth2_0.cli;
+
+import com.coursera.oauth2_0.model.AuthTokens;
+import com.coursera.oauth2_0.service.StubTokenServer;
+import com.coursera.oauth2_0.util.CourseraOAuth2Constants;
+import com.coursera.oauth2_0.util.FileOAuth2Utils;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Runs the native executable built by the native profile against a local stub token endpoint.
+ * In the native-agent profile the same scenarios run the CLI on the JVM under the native-image tracing agent,
+ * which merges the reflection and resource metadata they use into the committed native-image config.
+ */
+public class CourseraOAuth2CliNativeIT {
+
+    private static final String NATIVE_IMAGE_PROPERTY = "coaclient.native.image";
+    private static final String NATIVE_AGENT_CONFIG_PROPERTY = "coaclient.native.agent.config";
+
+    @Rule
+    public TemporaryFolder tokenCacheDir = new TemporaryFolder();
+
+    private StubTokenServer tokenServer;
+    private List<String> launcher;
+    private List<String> mainClass;
+
+    @Before
+    public void init() throws Exception {
+        String nativeImagePath = System.getProperty(NATIVE_IMAGE_PROPERTY);
+        String agentConfigDir = System.getProperty(NATIVE_AGENT_CONFIG_PROPERTY);
+        Assume.assumeTrue("Not running in the native profile", nativeImagePath != null || agentConfigDir != null);
+        if (agentConfigDir != null) {
+            launcher = Arrays.asList(
+                    System.getProperty("java.home") + File.separator + "bin" + File.separator + "java",
+                    "-agentlib:native-image-agent=config-merge-dir=" + agentConfigDir);
+            mainClass = Arrays.asList(
+                    "-cp", System.getProperty("java.class.path"), CourseraOAuth2Cli.class.getName());
+        } else {
+            File nativeImage = new File(nativeImagePath);
+            assertTrue("Native image is not built: " + nativeImage, nativeImage.canExecute());
+            launcher = Collections.singletonList(nativeImage.getPath());
+            mainClass = Collections.emptyList();
+        }
+
+        System.setProperty(CourseraOAuth2Constants.TOKEN_CACHE_DIR_PROPERTY, tokenCacheDir.getRoot().getPath());
+        tokenServer = new StubTokenServer(3600, 0);
+        FileOAuth2Utils.writeClientConfigToFile("client", "client-id", "secret",
+                Collections.singleton(CourseraOAuth2Constants.SCOPE_VIEW_PROFILE));
+    }
+
+    @After
+    public void cleanup() {
+        if (tokenServer != null) {
+            tokenServer.close();
+        }
+        System.clearProperty(CourseraOAuth2Constants.TOKEN_CACHE_DIR_PROPERTY);
+    }
+
+    @Test
+    public void testValidTokenIsReturnedWithoutRefresh() throws Exception {
+        String expiredIn = String.valueOf(System.currentTimeMillis() + TimeUnit.HOURS.toMillis(1));
+        FileOAuth2Utils.saveAuthTokens("client", new AuthTokens("refresh", "valid-access", expiredIn));
+
+        assertEquals(Collections.singletonList("valid-access"), runToken("client", 0));
+        assertEquals(0, tokenServer.getRefreshRequests());
+    }
+
+    @Test
+    public void testExpiredTokenIsRefreshed() throws Exception {
+        FileOAuth2Utils.saveAuthTokens("client", new AuthTokens("refresh", "expired-access", "0"));
+
+        assertEquals(Collections.singletonList("access-refreshed-1"), runToken("client", 0));
+        assertEquals(1, tokenServer.getRefreshRequests());
+        assertEquals("access-refreshed-1", FileOAuth2Utils.getAuthTokensFromFile("client").getAccessToken());
+    }
+
+    @Test
+    public void testUnknownClientExitsWithError() throws Exception {
+        assertTrue(runToken("unknown", 1).isEmpty());
+    }
+
+    private List<String> runToken(String clientName, int expectedExitCode) throws Exception {
+        List<String> command = new ArrayList<>(launcher);
+        command.add("-D" + CourseraOAuth2Constants.TOKEN_CACHE_DIR_PROPERTY + "=" + tokenCacheDir.getRoot().getPath());
+        command.add("-D" + CourseraOAuth2Constants.AUTH_TOKEN_URI_PROPERTY + "=" + tokenServer.getTokenURI());
+        command.addAll(mainClass);
+        command.add("token");
+        command.add(clientName);
+        Process process = new ProcessBuilder(command)
+                .redirectError(ProcessBuilder.Redirect.INHERIT)
+                .start();
+
+        List<String> output;
+        try (BufferedReader reader = new BufferedReader(
+                new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8))) {
+            output = reader.lines().collect(Collectors.toList());
+        }
+        assertTrue("Native image timed out", process.waitFor(30, TimeUnit.SECONDS));
+        assertEquals(expectedExitCode, process.exitValue());
+        return output;
+    }
+}
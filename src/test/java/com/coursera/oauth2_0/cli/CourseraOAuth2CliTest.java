@@ -0,0 +1,140 @@
+package com.coursera.oauth2_0.cli;
+
+import com.coursera.oauth2_0.model.AuthTokens;
+import com.coursera.oauth2_0.model.ClientConfig;
+import com.coursera.oauth2_0.service.CourseraOAuth2Service;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import org.json.JSONObject;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class CourseraOAuth2CliTest {
+
+    private CourseraOAuth2Service service;
+    private ByteArrayOutputStream out;
+    private CourseraOAuth2Cli cli;
+
+    @Before
+    public void init() {
+        service = mock(CourseraOAuth2Service.class);
+        out = new ByteArrayOutputStream();
+        cli = new CourseraOAuth2Cli(
+                service,
+                new PrintStream(out, true),
+                new PrintStream(new ByteArrayOutputStream(), true));
+
+        for (String clientName : Arrays.asList("first", "second")) {
+            when(service.getAccessToken(clientName)).thenReturn(clientName + "-access");
+            when(service.getAuthTokens(clientName)).thenReturn(
+                    new AuthTokens(clientName + "-refresh", clientName + "-access", "1000"));
+        }
+    }
+
+    @Test
+    public void testRunWithoutArgumentsPrintsUsage() {
+        assertEquals(2, cli.run(new String[0], input("")));
+        assertEquals(2, cli.run(new String[]{"unknown"}, input("")));
+    }
+
+    @Test
+    public void testToken() {
+        assertEquals(0, cli.run(new String[]{"token", "first"}, input("")));
+        assertEquals("first-access", output()[0]);
+        assertEquals(1, cli.run(new String[]{"token", "unknown"}, input("")));
+    }
+
+    @Test
+    public void testAddAndDelete() throws Exception {
+        assertEquals(0, cli.run(new String[]{"add", "first", "id", "secret", "view_profile"}, input("")));
+        verify(service).addClientConfig("first", "id", "secret", new HashSet<>(Collections.singletonList("view_profile")));
+
+        when(service.deleteClientConfig("first")).thenReturn(true);
+        assertEquals(0, cli.run(new String[]{"delete", "first"}, input("")));
+        verify(service).deleteClientConfig("first");
+        assertEquals(1, cli.run(new String[]{"delete", "unknown"}, input("")));
+    }
+
+    @Test
+    public void testList() {
+        when(service.getClientConfigs()).thenReturn(Collections.singletonList(
+                new ClientConfig("first", "id", "secret", "view_profile")));
+
+        assertEquals(0, cli.run(new String[]{"list"}, input("")));
+        JSONObject config = new JSONObject(output()[0]);
+        assertEquals("first", config.getString("client_name"));
+        assertEquals("id", config.getString("client_id"));
+        assertFalse(output()[0].contains("secret"));
+    }
+
+    @Test
+    public void testBatchWritesJsonLinesInInputOrder() {
+        assertEquals(1, cli.run(new String[]{"batch", "--threads", "4"}, input("second\n\nunknown\nfirst\n")));
+
+        String[] lines = output();
+        assertEquals(3, lines.length);
+        JSONObject second = new JSONObject(lines[0]);
+        assertEquals("second", second.getString("client_name"));
+        assertEquals("second-access", second.getString("access_token"));
+        assertEquals(1000L, second.getLong("expires_at"));
+        JSONObject unknown = new JSONObject(lines[1]);
+        assertEquals("unknown", unknown.getString("client_name"));
+        assertTrue(unknown.has("error"));
+        assertEquals("first-access", new JSONObject(lines[2]).getString("access_token"));
+    }
+
+    @Test
+    public void testBatchPairsTokenWithItsOwnExpiry() {
+        when(service.getAccessToken("rotated")).thenReturn("old-access");
+        when(service.getAuthTokens("rotated")).thenReturn(new AuthTokens("refresh", "new-access", "2000"));
+
+        assertEquals(0, cli.run(new String[]{"batch"}, input("rotated\n")));
+        JSONObject rotated = new JSONObject(output()[0]);
+        assertEquals("new-access", rotated.getString("access_token"));
+        assertEquals(2000L, rotated.getLong("expires_at"));
+    }
+
+    @Test
+    public void testBatchWithInvalidThreadsPrintsUsage() {
+        assertEquals(2, cli.run(new String[]{"batch", "--threads", "many"}, input("first\n")));
+    }
+
+    @Test
+    public void testServeAnswersEachRequestLine() {
+        when(service.deleteClientConfig("first")).thenReturn(true);
+        assertEquals(0, cli.run(new String[]{"--serve"},
+                input("token first\n\ntoken second\ndelete first\ndelete unknown\nunknown\n")));
+
+        String[] lines = output();
+        assertEquals(5, lines.length);
+        assertEquals("first-access", new JSONObject(lines[0]).getString("access_token"));
+        assertEquals("second-access", new JSONObject(lines[1]).getString("access_token"));
+        assertEquals("ok", new JSONObject(lines[2]).getString("status"));
+        JSONObject unknownDelete = new JSONObject(lines[3]);
+        assertEquals("unknown", unknownDelete.getString("client_name"));
+        assertTrue(unknownDelete.has("error"));
+        assertFalse(unknownDelete.has("status"));
+        assertTrue(new JSONObject(lines[4]).has("error"));
+        verify(service).deleteClientConfig("first");
+    }
+
+    private static InputStream input(String text) {
+        return new ByteArrayInputStream(text.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private String[] output() {
+        return new String(out.toByteArray(), StandardCharsets.UTF_8).split("\n");
+    }
+}
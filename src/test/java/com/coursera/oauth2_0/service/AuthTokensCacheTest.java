@@ -0,0 +1,117 @@
+package com.coursera.oauth2_0.service;
+
+import com.coursera.oauth2_0.model.AuthTokens;
+import com.coursera.oauth2_0.util.FileStamp;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class AuthTokensCacheTest {
+
+    private static final int MAXIMUM_SIZE = 100;
+
+    private final Map<String, AuthTokens> store = new ConcurrentHashMap<>();
+    private final Map<String, Integer> versions = new ConcurrentHashMap<>();
+    private final AtomicInteger storeReads = new AtomicInteger();
+    private AuthTokensCache cache;
+
+    @Before
+    public void init() {
+        cache = new AuthTokensCache(MAXIMUM_SIZE, clientName -> {
+            storeReads.incrementAndGet();
+            return store.get(clientName);
+        }, clientName -> {
+            Integer version = versions.get(clientName);
+            return version != null ? new FileStamp(version, 0, 0) : null;
+        });
+    }
+
+    @Test
+    public void testGetLoadsFromStoreOnce() {
+        AuthTokens authTokens = new AuthTokens("refresh", "access", "1000");
+        save("client", authTokens);
+
+        assertEquals(authTokens, cache.get("client").toAuthTokens());
+        assertEquals(authTokens, cache.get("client").toAuthTokens());
+        assertEquals(1, storeReads.get());
+    }
+
+    @Test
+    public void testGetReturnsNullIfStoreHasNoTokens() {
+        assertNull(cache.get("unknown"));
+        save("unknown", new AuthTokens("refresh", "access", "1000"));
+        assertEquals("access", cache.get("unknown").getAccessToken());
+    }
+
+    @Test
+    public void testGetReloadsChangedStore() {
+        save("client", new AuthTokens("refresh", "access", "1000"));
+        assertEquals("access", cache.get("client").getAccessToken());
+
+        save("client", new AuthTokens("refresh-new", "access-new", "2000"));
+        assertEquals(new AuthTokens("refresh-new", "access-new", "2000"), cache.get("client").toAuthTokens());
+        assertEquals(2, storeReads.get());
+
+        store.remove("client");
+        versions.remove("client");
+        assertNull(cache.get("client"));
+    }
+
+    @Test
+    public void testGetLoadsUnknownVersionEveryTime() {
+        store.put("client", new AuthTokens("refresh", "access", "1000"));
+        cache.get("client");
+        cache.get("client");
+        assertEquals(2, storeReads.get());
+    }
+
+    @Test
+    public void testReloadAndInvalidate() {
+        save("client", new AuthTokens("refresh", "access", "1000"));
+        assertEquals("access", cache.reload("client").getAccessToken());
+        assertEquals("access", cache.reload("client").getAccessToken());
+        assertEquals(2, storeReads.get());
+
+        cache.invalidate("client");
+        cache.get("client");
+        assertEquals(3, storeReads.get());
+    }
+
+    @Test
+    public void testExpiration() {
+        save("client", new AuthTokens("refresh", "access", "1000"));
+        assertFalse(cache.get("client").isExpired(999));
+        assertTrue(cache.get("client").isExpired(1001));
+    }
+
+    @Test
+    public void testSizeIsBoundedAndHotClientsStayResident() {
+        for (int i = 0; i < 10 * MAXIMUM_SIZE; i++) {
+            save("client-" + i, new AuthTokens("refresh-" + i, "access-" + i, "1000"));
+        }
+        save("hot", new AuthTokens("refresh", "access", "1000"));
+        for (int round = 0; round < 10; round++) {
+            cache.get("hot");
+        }
+        for (int i = 0; i < 10 * MAXIMUM_SIZE; i++) {
+            cache.get("client-" + i);
+            cache.get("hot");
+        }
+
+        assertTrue(cache.size() <= MAXIMUM_SIZE);
+        int reads = storeReads.get();
+        assertEquals("access", cache.get("hot").getAccessToken());
+        assertEquals(reads, storeReads.get());
+    }
+
+    private void save(String clientName, AuthTokens authTokens) {
+        store.put(clientName, authTokens);
+        versions.merge(clientName, 1, Integer::sum);
+    }
+}
@@ -0,0 +1,211 @@
+package com.coursera.oauth2_0.service;
+
+import com.coursera.oauth2_0.exception.TokenNotGeneratedException;
+import com.coursera.oauth2_0.model.AuthTokens;
+import com.coursera.oauth2_0.util.CourseraOAuth2Constants;
+import com.coursera.oauth2_0.util.CourseraOAuth2ServiceType;
+import com.coursera.oauth2_0.util.FileOAuth2Utils;
+import java.io.File;
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.ServerSocket;
+import java.net.URL;
+import java.util.Collections;
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class CourseraOAuth2ServiceFactoryTest {
+
+    @Rule
+    public TemporaryFolder tokenCacheDirs = new TemporaryFolder();
+
+    @After
+    public void cleanup() {
+        System.clearProperty(CourseraOAuth2Constants.AUTH_TOKEN_URI_PROPERTY);
+        System.clearProperty(CourseraOAuth2Constants.TOKEN_CACHE_DIR_PROPERTY);
+    }
+
+    @Test
+    public void testServicesOfSameConfigurationShareRuntime() {
+        FileOAuth2Service first = getFileService();
+        FileOAuth2Service second = getFileService();
+        assertNotSame(first, second);
+        assertSame(first.getRuntime(), second.getRuntime());
+
+        first.close();
+        FileOAuth2Service third = getFileService();
+        assertSame(second.getRuntime(), third.getRuntime());
+
+        second.close();
+        third.close();
+    }
+
+    @Test
+    public void testRuntimeIsRecreatedAfterLastServiceClosed() {
+        FileOAuth2Service first = getFileService();
+        FileOAuth2Runtime runtime = first.getRuntime();
+        first.close();
+        first.close();
+
+        FileOAuth2Service second = getFileService();
+        assertNotSame(runtime, second.getRuntime());
+        second.close();
+    }
+
+    @Test
+    public void testServicesOfDifferentConfigurationDoNotShareRuntime() {
+        FileOAuth2Service first = getFileService();
+        System.setProperty(CourseraOAuth2Constants.AUTH_TOKEN_URI_PROPERTY, "http://localhost/token");
+        FileOAuth2Service second = getFileService();
+        assertNotSame(first.getRuntime(), second.getRuntime());
+
+        first.close();
+        second.close();
+    }
+
+    @Test
+    public void testRuntimeKeepsItsTokenCacheDir() throws Exception {
+        File firstDir = tokenCacheDirs.newFolder("first");
+        File secondDir = tokenCacheDirs.newFolder("second");
+        String expiredIn = String.valueOf(System.currentTimeMillis() + 60000);
+        FileOAuth2Utils.saveAuthTokens(firstDir.getPath(), "client", new AuthTokens("refresh", "first", expiredIn));
+        FileOAuth2Utils.saveAuthTokens(secondDir.getPath(), "client", new AuthTokens("refresh", "second", expiredIn));
+
+        System.setProperty(CourseraOAuth2Constants.TOKEN_CACHE_DIR_PROPERTY, firstDir.getPath());
+        FileOAuth2Service first = getFileService();
+        System.setProperty(CourseraOAuth2Constants.TOKEN_CACHE_DIR_PROPERTY, secondDir.getPath());
+        FileOAuth2Service second = getFileService();
+        assertNotSame(first.getRuntime(), second.getRuntime());
+
+        assertEquals("first", first.getAccessToken("client"));
+        assertEquals("second", second.getAccessToken("client"));
+        first.addClientConfig("client", "client-id", "secret",
+                Collections.singleton(CourseraOAuth2Constants.SCOPE_VIEW_PROFILE));
+        assertEquals(1, FileOAuth2Utils.getClientConfigsFromConfigFile(firstDir.getPath()).size());
+        assertEquals(0, FileOAuth2Utils.getClientConfigsFromConfigFile(secondDir.getPath()).size());
+
+        first.close();
+        second.close();
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testClosedServiceCannotBeUsed() {
+        FileOAuth2Service first = getFileService();
+        FileOAuth2Service second = getFileService();
+        first.close();
+        try {
+            first.getAccessToken("client");
+        } finally {
+            second.close();
+        }
+    }
+
+    @Test
+    public void testCallbackListenerStopsWhenLastServiceStopsIt() throws Exception {
+        System.setProperty("java.awt.headless", "true");
+        System.setProperty(CourseraOAuth2Constants.TOKEN_CACHE_DIR_PROPERTY, tokenCacheDirs.getRoot().getPath());
+        FileOAuth2Service first = getFileService();
+        FileOAuth2Service second = getFileService();
+        FileOAuth2Runtime runtime = first.getRuntime();
+        first.addClientConfig("client", "client-id", "secret",
+                Collections.singleton(CourseraOAuth2Constants.SCOPE_VIEW_PROFILE));
+
+        Assume.assumeTrue("Callback port is not available", isCallbackPortFree());
+        first.generateAuthTokens("client");
+        assertTrue(runtime.isCallbackListenerRunning());
+        first.generateAuthTokens("client");
+        second.generateAuthTokens("client");
+
+        first.stopServerCallbackListener();
+        first.stopServerCallbackListener();
+        assertTrue(runtime.isCallbackListenerRunning());
+        second.close();
+        assertFalse(runtime.isCallbackListenerRunning());
+
+        first.close();
+    }
+
+    @Test
+    public void testCallbacksAreRoutedToTheOwningRuntime() throws Exception {
+        System.setProperty("java.awt.headless", "true");
+        File firstDir = tokenCacheDirs.newFolder("first");
+        File secondDir = tokenCacheDirs.newFolder("second");
+        try (StubTokenServer firstTokenServer = new StubTokenServer(3600, 0);
+             StubTokenServer secondTokenServer = new StubTokenServer(3600, 0)) {
+            System.setProperty(CourseraOAuth2Constants.TOKEN_CACHE_DIR_PROPERTY, firstDir.getPath());
+            System.setProperty(CourseraOAuth2Constants.AUTH_TOKEN_URI_PROPERTY, firstTokenServer.getTokenURI());
+            FileOAuth2Service first = getFileService();
+            System.setProperty(CourseraOAuth2Constants.TOKEN_CACHE_DIR_PROPERTY, secondDir.getPath());
+            System.setProperty(CourseraOAuth2Constants.AUTH_TOKEN_URI_PROPERTY, secondTokenServer.getTokenURI());
+            FileOAuth2Service second = getFileService();
+            try {
+                first.addClientConfig("first", "first-id", "secret",
+                        Collections.singleton(CourseraOAuth2Constants.SCOPE_VIEW_PROFILE));
+                second.addClientConfig("second", "second-id", "secret",
+                        Collections.singleton(CourseraOAuth2Constants.SCOPE_VIEW_PROFILE));
+                Assume.assumeTrue("Callback port is not available", isCallbackPortFree());
+                first.generateAuthTokens("first");
+                second.generateAuthTokens("second");
+
+                assertEquals(200, sendCallback("second-id", "second-code"));
+                assertEquals(200, sendCallback("first-id", "first-code"));
+                assertEquals(400, sendCallback("unknown-id", "code"));
+
+                assertEquals(1, firstTokenServer.getAuthorizationCodeRequests());
+                assertEquals(1, secondTokenServer.getAuthorizationCodeRequests());
+                assertEquals("access-first-code", first.getAccessToken("first"));
+                assertEquals("access-second-code", second.getAccessToken("second"));
+                assertNull(FileOAuth2Utils.getAuthTokensFromFile(firstDir.getPath(), "second"));
+                assertNull(FileOAuth2Utils.getAuthTokensFromFile(secondDir.getPath(), "first"));
+            } finally {
+                first.close();
+                second.close();
+            }
+        }
+    }
+
+    @Test(expected = TokenNotGeneratedException.class)
+    public void testGenerateFailsIfCallbackPortIsTaken() throws Exception {
+        System.setProperty("java.awt.headless", "true");
+        System.setProperty(CourseraOAuth2Constants.TOKEN_CACHE_DIR_PROPERTY, tokenCacheDirs.getRoot().getPath());
+        try (ServerSocket socket = new ServerSocket(CourseraOAuth2Constants.PORT);
+             FileOAuth2Service service = getFileService()) {
+            service.addClientConfig("client", "client-id", "secret",
+                    Collections.singleton(CourseraOAuth2Constants.SCOPE_VIEW_PROFILE));
+            service.generateAuthTokens("client");
+        }
+    }
+
+    private static boolean isCallbackPortFree() {
+        try (ServerSocket socket = new ServerSocket(CourseraOAuth2Constants.PORT)) {
+            return true;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    private static int sendCallback(String clientId, String code) throws IOException {
+        URL url = new URL(CourseraOAuth2Constants.COURSERA_CALLBACK_URI + clientId + "&code=" + code);
+        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        connection.setConnectTimeout(5000);
+        connection.setReadTimeout(30000);
+        try {
+            return connection.getResponseCode();
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    private static FileOAuth2Service getFileService() {
+        return (FileOAuth2Service) CourseraOAuth2ServiceFactory.getInstance(CourseraOAuth2ServiceType.FILE);
+    }
+}
@@ -0,0 +1,354 @@
+package com.coursera.oauth2_0.service;
+
+import com.coursera.oauth2_0.exception.CreateClientAppException;
+import com.coursera.oauth2_0.model.AuthTokens;
+import com.coursera.oauth2_0.model.AuthTokensEvent;
+import com.coursera.oauth2_0.model.ClientConfig;
+import com.coursera.oauth2_0.util.AuthTokensEventType;
+import com.coursera.oauth2_0.util.CourseraOAuth2Constants;
+import com.coursera.oauth2_0.util.CourseraOAuth2ServiceType;
+import com.coursera.oauth2_0.util.FileOAuth2Utils;
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.ServerSocket;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Multi-threaded stress tests for the file token service running on a temporary token cache
+ * directory against a local stub token endpoint
+ */
+public class FileOAuth2ServiceStressTest {
+
+    private static final int THREADS = 32;
+    private static final Set<String> SCOPES = Collections.singleton(CourseraOAuth2Constants.SCOPE_VIEW_PROFILE);
+
+    @Rule
+    public TemporaryFolder tokenCacheDir = new TemporaryFolder();
+
+    private StubTokenServer tokenServer;
+    private CourseraOAuth2Service service;
+    private ExecutorService executor;
+
+    @Before
+    public void init() throws IOException {
+        System.setProperty("java.awt.headless", "true");
+        System.setProperty(CourseraOAuth2Constants.TOKEN_CACHE_DIR_PROPERTY, tokenCacheDir.getRoot().getPath());
+        tokenServer = new StubTokenServer(3600, 20);
+        System.setProperty(CourseraOAuth2Constants.AUTH_TOKEN_URI_PROPERTY, tokenServer.getTokenURI());
+        service = CourseraOAuth2ServiceFactory.getInstance(CourseraOAuth2ServiceType.FILE);
+        executor = Executors.newFixedThreadPool(THREADS);
+    }
+
+    @After
+    public void cleanup() {
+        executor.shutdownNow();
+        service.stopServerCallbackListener();
+        service.close();
+        tokenServer.close();
+        System.clearProperty(CourseraOAuth2Constants.AUTH_TOKEN_URI_PROPERTY);
+        System.clearProperty(CourseraOAuth2Constants.TOKEN_CACHE_DIR_PROPERTY);
+    }
+
+    @Test
+    public void testConcurrentAddAndDeleteLoseNoConfigs() throws Exception {
+        for (int i = 0; i < 50; i++) {
+            service.addClientConfig("old-" + i, "old-" + i + "-id", "secret", SCOPES);
+        }
+
+        AtomicInteger added = new AtomicInteger();
+        List<Callable<Void>> tasks = new ArrayList<>();
+        for (int attempt = 0; attempt < 2; attempt++) {
+            for (int i = 0; i < 100; i++) {
+                String clientName = "new-" + i;
+                tasks.add(() -> {
+                    try {
+                        service.addClientConfig(clientName, clientName + "-id", "secret", SCOPES);
+                        added.incrementAndGet();
+                    } catch (CreateClientAppException e) {
+                        assertTrue(e.getMessage(), e.getMessage().contains("already exists"));
+                    }
+                    return null;
+                });
+            }
+        }
+        for (int i = 0; i < 50; i++) {
+            String clientName = "old-" + i;
+            tasks.add(() -> {
+                service.deleteClientConfig(clientName);
+                return null;
+            });
+        }
+        for (int i = 0; i < 100; i++) {
+            tasks.add(() -> {
+                for (ClientConfig config : service.getClientConfigs()) {
+                    assertEquals(config.getClientName() + "-id", config.getClientId());
+                }
+                return null;
+            });
+        }
+        runConcurrently(tasks);
+
+        assertEquals(100, added.get());
+        Set<String> expected = IntStream.range(0, 100).mapToObj(i -> "new-" + i).collect(Collectors.toSet());
+        Set<String> actual = service.getClientConfigs().stream()
+                .map(ClientConfig::getClientName)
+                .collect(Collectors.toSet());
+        assertEquals(expected, actual);
+        assertEquals(100, service.getClientConfigs().size());
+    }
+
+    @Test
+    public void testConcurrentTokenReadsAreNeverTorn() throws Exception {
+        String clientName = "torn";
+        long baseExpiry = System.currentTimeMillis() + TimeUnit.HOURS.toMillis(1);
+        FileOAuth2Utils.saveAuthTokens(clientName, tokensOfGeneration(0, baseExpiry));
+
+        AtomicInteger generation = new AtomicInteger();
+        List<Callable<Void>> tasks = new ArrayList<>();
+        for (int writer = 0; writer < 4; writer++) {
+            tasks.add(() -> {
+                for (int i = 0; i < 200; i++) {
+                    FileOAuth2Utils.saveAuthTokens(clientName, tokensOfGeneration(generation.incrementAndGet(), baseExpiry));
+                }
+                return null;
+            });
+        }
+        for (int reader = 0; reader < THREADS - 4; reader++) {
+            tasks.add(() -> {
+                for (int i = 0; i < 200; i++) {
+                    AuthTokens authTokens = service.getAuthTokens(clientName);
+                    assertNotNull(authTokens);
+                    String refreshGeneration = authTokens.getRefreshToken().substring("refresh-".length());
+                    String accessGeneration = authTokens.getAccessToken().substring("access-".length());
+                    long expiryGeneration = Long.parseLong(authTokens.getExpiredIn()) - baseExpiry;
+                    assertEquals(refreshGeneration, accessGeneration);
+                    assertEquals(refreshGeneration, String.valueOf(expiryGeneration));
+                }
+                return null;
+            });
+        }
+        runConcurrently(tasks);
+    }
+
+    @Test
+    public void testExpiredTokenIsRefreshedOncePerExpiry() throws Exception {
+        int clients = 10;
+        for (int i = 0; i < clients; i++) {
+            service.addClientConfig("client-" + i, "client-id-" + i, "secret", SCOPES);
+        }
+
+        for (int expiry = 1; expiry <= 2; expiry++) {
+            for (int i = 0; i < clients; i++) {
+                FileOAuth2Utils.saveAuthTokens("client-" + i, new AuthTokens("refresh-" + i, "expired-" + i, "0"));
+            }
+
+            ConcurrentHashMap<String, Set<String>> accessTokens = new ConcurrentHashMap<>();
+            List<Callable<Void>> tasks = new ArrayList<>();
+            for (int thread = 0; thread < THREADS; thread++) {
+                tasks.add(() -> {
+                    for (int i = 0; i < clients; i++) {
+                        String clientName = "client-" + i;
+                        String accessToken = service.getAccessToken(clientName);
+                        assertNotNull(accessToken);
+                        accessTokens.computeIfAbsent(clientName, name -> ConcurrentHashMap.newKeySet()).add(accessToken);
+                    }
+                    return null;
+                });
+            }
+            runConcurrently(tasks);
+
+            assertEquals(clients * expiry, tokenServer.getRefreshRequests());
+            for (Set<String> tokens : accessTokens.values()) {
+                assertEquals(tokens.toString(), 1, tokens.size());
+            }
+        }
+    }
+
+    @Test
+    public void testFailedRefreshIsSharedByWaitingThreads() throws Exception {
+        int clients = 10;
+        for (int i = 0; i < clients; i++) {
+            service.addClientConfig("client-" + i, "client-id-" + i, "secret", SCOPES);
+            FileOAuth2Utils.saveAuthTokens("client-" + i, new AuthTokens("refresh-" + i, "expired-" + i, "0"));
+        }
+        tokenServer.setRefreshStatus(400);
+
+        List<Callable<Void>> tasks = new ArrayList<>();
+        for (int thread = 0; thread < THREADS; thread++) {
+            tasks.add(() -> {
+                for (int i = 0; i < clients; i++) {
+                    assertNull(service.getAccessToken("client-" + i));
+                }
+                return null;
+            });
+        }
+        runConcurrently(tasks);
+        assertEquals(clients, tokenServer.getRefreshRequests());
+
+        tokenServer.setRefreshStatus(200);
+        FileOAuth2Utils.saveAuthTokens("client-0", new AuthTokens("refresh-rotated", "expired-0", "0"));
+        assertEquals("access-refreshed-" + (clients + 1), service.getAccessToken("client-0"));
+        assertNull(service.getAccessToken("client-1"));
+        assertEquals(clients + 1, tokenServer.getRefreshRequests());
+    }
+
+    @Test
+    public void testTokensWrittenOutsideTheServiceAreServed() throws Exception {
+        String clientName = "outside";
+        service.addClientConfig(clientName, "outside-id", "secret", SCOPES);
+        long expiredIn = System.currentTimeMillis() + TimeUnit.HOURS.toMillis(1);
+        FileOAuth2Utils.saveAuthTokens(clientName, new AuthTokens("refresh-old", "access-old", String.valueOf(expiredIn)));
+        assertEquals("access-old", service.getAccessToken(clientName));
+
+        FileOAuth2Utils.saveAuthTokens(clientName, new AuthTokens("refresh-new", "access-new", String.valueOf(expiredIn)));
+        assertEquals("access-new", service.getAccessToken(clientName));
+
+        FileOAuth2Utils.saveAuthTokens(clientName, new AuthTokens("refresh-rotated", "access-expired", "0"));
+        assertEquals("access-refreshed-1", service.getAccessToken(clientName));
+        assertEquals("refresh-rotated", tokenServer.getLastRefreshToken());
+        assertEquals("refresh-rotated", FileOAuth2Utils.getAuthTokensFromFile(clientName).getRefreshToken());
+
+        FileOAuth2Utils.deleteClientConfig(clientName);
+        assertNull(service.getAuthTokens(clientName));
+    }
+
+    @Test
+    public void testUnreachableTokenEndpointNotifiesRefreshFailed() throws Exception {
+        String clientName = "unreachable";
+        service.addClientConfig(clientName, "unreachable-id", "secret", SCOPES);
+        AuthTokens expiredTokens = new AuthTokens("refresh", "access-expired", "0");
+        FileOAuth2Utils.saveAuthTokens(clientName, expiredTokens);
+
+        int closedPort;
+        try (ServerSocket socket = new ServerSocket(0)) {
+            closedPort = socket.getLocalPort();
+        }
+        System.setProperty(CourseraOAuth2Constants.AUTH_TOKEN_URI_PROPERTY, "http://localhost:" + closedPort + "/token");
+        try (CourseraOAuth2Service unreachableService =
+                     CourseraOAuth2ServiceFactory.getInstance(CourseraOAuth2ServiceType.FILE)) {
+            BlockingQueue<AuthTokensEvent> events = new LinkedBlockingQueue<>();
+            unreachableService.addAuthTokensListener(events::add);
+
+            assertNull(unreachableService.getAccessToken(clientName));
+            AuthTokensEvent event = events.poll(5, TimeUnit.SECONDS);
+            assertNotNull(event);
+            assertEquals(AuthTokensEventType.REFRESH_FAILED, event.getType());
+            assertEquals(expiredTokens, event.getAuthTokens());
+        }
+        assertEquals(expiredTokens, FileOAuth2Utils.getAuthTokensFromFile(clientName));
+    }
+
+    @Test
+    public void testConcurrentCallbacksCreateTokensForEveryClient() throws Exception {
+        int clients = 20;
+        for (int i = 0; i < clients; i++) {
+            service.addClientConfig("callback-" + i, "callback-id-" + i, "secret", SCOPES);
+            service.addClientConfig("other-" + i, "other-id-" + i, "secret", SCOPES);
+            FileOAuth2Utils.saveAuthTokens("other-" + i, new AuthTokens("refresh-" + i, "expired-" + i, "0"));
+        }
+        BlockingQueue<AuthTokensEvent> createdEvents = new LinkedBlockingQueue<>();
+        service.addAuthTokensListener(event -> {
+            if (event.getType() == AuthTokensEventType.CREATED) {
+                createdEvents.add(event);
+            }
+        });
+
+        Assume.assumeTrue("Callback port is not available", isCallbackPortFree());
+        service.generateAuthTokens("callback-0");
+
+        List<Callable<Void>> tasks = new ArrayList<>();
+        for (int i = 0; i < clients; i++) {
+            String clientId = "callback-id-" + i;
+            String clientName = "other-" + i;
+            tasks.add(() -> {
+                assertEquals(200, sendCallback(clientId, "code-" + clientId));
+                return null;
+            });
+            tasks.add(() -> {
+                service.getAccessToken(clientName);
+                return null;
+            });
+            tasks.add(() -> {
+                service.deleteClientConfig(clientName);
+                return null;
+            });
+        }
+        runConcurrently(tasks);
+
+        assertEquals(clients, tokenServer.getAuthorizationCodeRequests());
+        for (int i = 0; i < clients; i++) {
+            AuthTokens authTokens = service.getAuthTokens("callback-" + i);
+            assertNotNull(authTokens);
+            assertEquals("access-code-callback-id-" + i, authTokens.getAccessToken());
+        }
+        for (int i = 0; i < clients; i++) {
+            assertNotNull(createdEvents.poll(5, TimeUnit.SECONDS));
+        }
+        assertEquals(clients, service.getClientConfigs().size());
+    }
+
+    private void runConcurrently(List<Callable<Void>> tasks) throws Exception {
+        CountDownLatch startGate = new CountDownLatch(1);
+        List<Future<Void>> futures = new ArrayList<>();
+        for (Callable<Void> task : tasks) {
+            futures.add(executor.submit(() -> {
+                startGate.await();
+                return task.call();
+            }));
+        }
+        startGate.countDown();
+        for (Future<Void> future : futures) {
+            future.get(60, TimeUnit.SECONDS);
+        }
+    }
+
+    private static AuthTokens tokensOfGeneration(int generation, long baseExpiry) {
+        return new AuthTokens("refresh-" + generation, "access-" + generation, String.valueOf(baseExpiry + generation));
+    }
+
+    private static boolean isCallbackPortFree() {
+        try (ServerSocket socket = new ServerSocket(CourseraOAuth2Constants.PORT)) {
+            return true;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    private static int sendCallback(String clientId, String code) throws IOException {
+        URL url = new URL(CourseraOAuth2Constants.COURSERA_CALLBACK_URI + clientId + "&code=" + code);
+        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        connection.setConnectTimeout(5000);
+        connection.setReadTimeout(30000);
+        try {
+            return connection.getResponseCode();
+        } finally {
+            connection.disconnect();
+        }
+    }
+}
@@ -3,21 +3,32 @@ package com.coursera.oauth2_0.service;
 import com.coursera.oauth2_0.exception.CreateClientAppException;
 import com.coursera.oauth2_0.exception.TokenNotGeneratedException;
 import com.coursera.oauth2_0.model.AuthTokens;
+import com.coursera.oauth2_0.model.AuthTokensEvent;
 import com.coursera.oauth2_0.model.ClientConfig;
+import com.coursera.oauth2_0.util.AuthTokensEventType;
+import com.coursera.oauth2_0.util.CourseraOAuth2Constants;
 import com.coursera.oauth2_0.util.FileOAuth2Utils;
 import com.coursera.oauth2_0.util.CourseraOAuth2ServiceType;
 import java.util.Arrays;
 import java.util.HashSet;
 import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.powermock.core.classloader.annotations.PrepareForTest;
 import org.powermock.modules.junit4.PowerMockRunner;
 import static junit.framework.TestCase.assertEquals;
+import static junit.framework.TestCase.assertFalse;
+import static junit.framework.TestCase.assertNull;
+import static junit.framework.TestCase.assertTrue;
 import static org.mockito.Matchers.anySet;
 import static org.mockito.Matchers.anyString;
 import static org.powermock.api.mockito.PowerMockito.doNothing;
+import static org.powermock.api.mockito.PowerMockito.doReturn;
 import static org.powermock.api.mockito.PowerMockito.spy;
 import static org.powermock.api.mockito.PowerMockito.verifyStatic;
 import static org.powermock.api.mockito.PowerMockito.when;
@@ -34,11 +45,16 @@ public class FileOAuth2ServiceTest {
         service = CourseraOAuth2ServiceFactory.getInstance(CourseraOAuth2ServiceType.FILE);
     }
 
+    @After
+    public void cleanup() {
+        service.close();
+    }
+
     @Test
     public void testAddClient() throws Exception {
         doNothing().when(FileOAuth2Utils.class,
                 "writeClientConfigToFile",
-                anyString(), anyString(), anyString(), anySet());
+                anyString(), anyString(), anyString(), anyString(), anySet());
         Set<String> scopes = new HashSet<>();
         scopes.add("access_business_api");
         service.addClientConfig("test", "test","test", scopes);
@@ -59,34 +75,87 @@ public class FileOAuth2ServiceTest {
 
     @Test
     public void testDeleteClient() throws Exception {
-        doNothing().when(FileOAuth2Utils.class, "deleteClientConfig", anyString());
-        service.deleteClientConfig(anyString());
+        doReturn(true).when(FileOAuth2Utils.class, "deleteClientConfig", anyString(), anyString());
+        assertTrue(service.deleteClientConfig("testName"));
         verifyStatic();
     }
 
+    @Test
+    public void testDeleteClientNotifiesListener() throws Exception {
+        doReturn(true).when(FileOAuth2Utils.class, "deleteClientConfig", anyString(), anyString());
+        BlockingQueue<AuthTokensEvent> events = new LinkedBlockingQueue<>();
+        BlockingQueue<String> threadNames = new LinkedBlockingQueue<>();
+        service.addAuthTokensListener(event -> {
+            threadNames.add(Thread.currentThread().getName());
+            events.add(event);
+        });
+        service.deleteClientConfig("testName");
+
+        AuthTokensEvent event = events.poll(5, TimeUnit.SECONDS);
+        assertEquals(AuthTokensEventType.DELETED, event.getType());
+        assertEquals("testName", event.getClientName());
+        assertEquals(CourseraOAuth2Constants.EVENT_DISPATCHER_THREAD_NAME, threadNames.poll());
+    }
+
+    @Test
+    public void testDeleteUnknownClientDoesNotNotifyListener() throws Exception {
+        doReturn(false).when(FileOAuth2Utils.class, "deleteClientConfig", anyString(), anyString());
+        BlockingQueue<AuthTokensEvent> events = new LinkedBlockingQueue<>();
+        service.addAuthTokensListener(events::add);
+        assertFalse(service.deleteClientConfig("unknownName"));
+
+        assertNull(events.poll(500, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void testRemovedListenerIsNotNotified() throws Exception {
+        doReturn(true).when(FileOAuth2Utils.class, "deleteClientConfig", anyString(), anyString());
+        BlockingQueue<AuthTokensEvent> events = new LinkedBlockingQueue<>();
+        AuthTokensListener listener = events::add;
+        service.addAuthTokensListener(listener);
+        service.removeAuthTokensListener(listener);
+        service.deleteClientConfig("testName");
+
+        assertNull(events.poll(500, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void testRefreshFailedNotifiesListener() throws Exception {
+        AuthTokens expiredTokens = new AuthTokens("testRefreshToken", "testAccessToken", "0");
+        when(FileOAuth2Utils.getAuthTokensFromFile(anyString(), anyString())).thenReturn(expiredTokens);
+        when(FileOAuth2Utils.getClientConfigByNameOrId(anyString(), anyString())).thenReturn(null);
+        BlockingQueue<AuthTokensEvent> events = new LinkedBlockingQueue<>();
+        service.addAuthTokensListener(events::add);
+
+        assertNull(service.getAccessToken("testName"));
+        AuthTokensEvent event = events.poll(5, TimeUnit.SECONDS);
+        assertEquals(AuthTokensEventType.REFRESH_FAILED, event.getType());
+        assertEquals(expiredTokens, event.getAuthTokens());
+    }
+
     @Test(expected = TokenNotGeneratedException.class)
     public void testGenerateOAuth2Tokens() throws Exception {
-        when(FileOAuth2Utils.getClientConfigByNameOrId(anyString())).thenReturn(null);
-        service.generateAuthTokens(anyString());
+        when(FileOAuth2Utils.getClientConfigByNameOrId(anyString(), anyString())).thenReturn(null);
+        service.generateAuthTokens("testName");
     }
 
     @Test(expected = TokenNotGeneratedException.class)
     public void testGenerateOAuth2TokensShouldThrowExceptionIfConfigNotFound() throws TokenNotGeneratedException {
-        service.generateAuthTokens(anyString());
+        service.generateAuthTokens("testName");
     }
 
     @Test
     public void testGetAuthTokens() {
         AuthTokens authTokens = getTestTokens();
-        when(FileOAuth2Utils.getAuthTokensFromFile(anyString())).thenReturn(authTokens);
-        assertEquals(authTokens, service.getAuthTokens(anyString()));
+        when(FileOAuth2Utils.getAuthTokensFromFile(anyString(), anyString())).thenReturn(authTokens);
+        assertEquals(authTokens, service.getAuthTokens("testName"));
         verifyStatic();
     }
 
     @Test
     public void testGetAccessToken() {
-        when(FileOAuth2Utils.getAuthTokensFromFile(anyString())).thenReturn(getTestTokens());
-        assertEquals("testAccessToken", service.getAccessToken(anyString()));
+        when(FileOAuth2Utils.getAuthTokensFromFile(anyString(), anyString())).thenReturn(getTestTokens());
+        assertEquals("testAccessToken", service.getAccessToken("testName"));
         verifyStatic();
     }
 
@@ -97,7 +166,7 @@ public class FileOAuth2ServiceTest {
                 "testId",
                 "testSecret",
                 "testScope");
-        when(FileOAuth2Utils.getClientConfigsFromConfigFile()).thenReturn(Arrays.asList(config));
+        when(FileOAuth2Utils.getClientConfigsFromConfigFile(anyString())).thenReturn(Arrays.asList(config));
         assertEquals(1, service.getClientConfigs().size());
         assertEquals(config.getClientName(), service.getClientConfigs().get(0).getClientName());
         assertEquals(config.getClientId(), service.getClientConfigs().get(0).getClientId());
@@ -0,0 +1,125 @@
+package com.coursera.oauth2_0.service;
+
+import com.coursera.oauth2_0.util.CourseraOAuth2Constants;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.json.JSONObject;
+
+/**
+ * Local stand-in for the Coursera token endpoint, counts token requests by grant type.
+ * Refresh requests can be answered with an error status
+ */
+public class StubTokenServer implements AutoCloseable {
+
+    private final HttpServer server;
+    private final ExecutorService executor = Executors.newFixedThreadPool(8);
+    private final AtomicInteger refreshRequests = new AtomicInteger();
+    private final AtomicInteger authorizationCodeRequests = new AtomicInteger();
+    private volatile String lastRefreshToken;
+    private volatile int refreshStatus = 200;
+    private final int expiresIn;
+    private final long responseDelayMillis;
+
+    public StubTokenServer(int expiresIn, long responseDelayMillis) throws IOException {
+        this.expiresIn = expiresIn;
+        this.responseDelayMillis = responseDelayMillis;
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/token", this::handle);
+        server.setExecutor(executor);
+        server.start();
+    }
+
+    public String getTokenURI() {
+        return "http://localhost:" + server.getAddress().getPort() + "/token";
+    }
+
+    public int getRefreshRequests() {
+        return refreshRequests.get();
+    }
+
+    public String getLastRefreshToken() {
+        return lastRefreshToken;
+    }
+
+    public void setRefreshStatus(int refreshStatus) {
+        this.refreshStatus = refreshStatus;
+    }
+
+    public int getAuthorizationCodeRequests() {
+        return authorizationCodeRequests.get();
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        Map<String, String> params = parseForm(exchange.getRequestBody());
+        String grantType = params.get(CourseraOAuth2Constants.GRANT_TYPE_KEY);
+
+        int status = 200;
+        JSONObject response = new JSONObject();
+        response.put(CourseraOAuth2Constants.EXPIRES_IN, expiresIn);
+        if (CourseraOAuth2Constants.AUTHORIZATION_CODE_VALUE.equals(grantType)) {
+            int request = authorizationCodeRequests.incrementAndGet();
+            response.put(CourseraOAuth2Constants.ACCESS_TOKEN_KEY, "access-" + params.get(CourseraOAuth2Constants.CODE_KEY));
+            response.put(CourseraOAuth2Constants.REFRESH_TOKEN_KEY, "refresh-" + request);
+        } else {
+            lastRefreshToken = params.get(CourseraOAuth2Constants.REFRESH_TOKEN_KEY);
+            int request = refreshRequests.incrementAndGet();
+            status = refreshStatus;
+            if (status == 200) {
+                response.put(CourseraOAuth2Constants.ACCESS_TOKEN_KEY, "access-refreshed-" + request);
+            } else {
+                response = new JSONObject().put("error", "invalid_grant");
+            }
+        }
+
+        if (responseDelayMillis > 0) {
+            try {
+                Thread.sleep(responseDelayMillis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        byte[] body = response.toString().getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().add("Content-Type", "application/json");
+        exchange.sendResponseHeaders(status, body.length);
+        try (OutputStream responseBody = exchange.getResponseBody()) {
+            responseBody.write(body);
+        }
+    }
+
+    private static Map<String, String> parseForm(InputStream requestBody) throws IOException {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        byte[] chunk = new byte[1024];
+        int read;
+        while ((read = requestBody.read(chunk)) != -1) {
+            buffer.write(chunk, 0, read);
+        }
+
+        Map<String, String> params = new HashMap<>();
+        for (String pair : new String(buffer.toByteArray(), StandardCharsets.UTF_8).split("&")) {
+            String[] keyValue = pair.split("=", 2);
+            if (keyValue.length == 2) {
+                params.put(URLDecoder.decode(keyValue[0], "UTF-8"), URLDecoder.decode(keyValue[1], "UTF-8"));
+            }
+        }
+        return params;
+    }
+}
@@ -0,0 +1,155 @@
+package com.coursera.oauth2_0.util;
+
+import com.coursera.oauth2_0.model.AuthTokens;
+import com.coursera.oauth2_0.model.ClientConfig;
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class FileOAuth2UtilsTest {
+
+    private static final Set<String> SCOPES = Collections.singleton(CourseraOAuth2Constants.SCOPE_VIEW_PROFILE);
+
+    @Rule
+    public TemporaryFolder tokenCacheDir = new TemporaryFolder();
+
+    private Path configFile;
+
+    @Before
+    public void init() {
+        System.setProperty(CourseraOAuth2Constants.TOKEN_CACHE_DIR_PROPERTY, tokenCacheDir.getRoot().getPath());
+        configFile = tokenCacheDir.getRoot().toPath().resolve("coaclient.csv");
+    }
+
+    @After
+    public void cleanup() {
+        System.clearProperty(CourseraOAuth2Constants.TOKEN_CACHE_DIR_PROPERTY);
+    }
+
+    @Test
+    public void testDeleteMatchesClientNameExactly() throws Exception {
+        for (String clientName : Arrays.asList("test", "test2", "mytest")) {
+            FileOAuth2Utils.writeClientConfigToFile(clientName, clientName + "-id", "secret", SCOPES);
+            FileOAuth2Utils.saveAuthTokens(clientName, new AuthTokens("refresh", "access", "1000"));
+        }
+
+        assertTrue(FileOAuth2Utils.deleteClientConfig("test"));
+
+        assertEquals(new HashSet<>(Arrays.asList("test2", "mytest")), getClientNames());
+        assertNull(FileOAuth2Utils.getAuthTokensFromFile("test"));
+        assertNotNull(FileOAuth2Utils.getAuthTokensFromFile("test2"));
+        assertNotNull(FileOAuth2Utils.getAuthTokensFromFile("mytest"));
+    }
+
+    @Test
+    public void testDeleteUnknownClientLeavesConfigUntouched() throws Exception {
+        FileOAuth2Utils.writeClientConfigToFile("test", "test-id", "secret", SCOPES);
+        byte[] config = Files.readAllBytes(configFile);
+
+        assertFalse(FileOAuth2Utils.deleteClientConfig("tes"));
+        assertArrayEquals(config, Files.readAllBytes(configFile));
+    }
+
+    @Test
+    public void testDeleteNeverExposesPartialConfig() throws Exception {
+        int clients = 50;
+        for (int i = 0; i < clients; i++) {
+            FileOAuth2Utils.writeClientConfigToFile("client-" + i, "client-id-" + i, "secret", SCOPES);
+        }
+        String header = Files.readAllLines(configFile).get(0);
+
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Future<?> deletes = executor.submit(() -> {
+                for (int i = 0; i < clients; i++) {
+                    assertTrue(FileOAuth2Utils.deleteClientConfig("client-" + i));
+                }
+            });
+            while (!deletes.isDone()) {
+                List<String> rows = Files.readAllLines(configFile);
+                assertEquals(header, rows.get(0));
+                for (String row : rows) {
+                    assertEquals(row, 4, row.split(",").length);
+                }
+            }
+            deletes.get();
+        } finally {
+            executor.shutdownNow();
+        }
+
+        assertEquals(Collections.singletonList(header), Files.readAllLines(configFile));
+        File[] tmpFiles = tokenCacheDir.getRoot().listFiles((dir, name) -> name.endsWith(".tmp"));
+        assertEquals(0, tmpFiles.length);
+    }
+
+    @Test
+    public void testConfigReplacedWithSameSizeAndModifiedTimeIsReloaded() throws Exception {
+        FileOAuth2Utils.writeClientConfigToFile("client-a", "client-id-a", "secret", SCOPES);
+        assertEquals(Collections.singleton("client-a"), getClientNames());
+
+        List<String> rows = Files.readAllLines(configFile);
+        Path replacement = tokenCacheDir.newFile("replacement.csv").toPath();
+        Files.write(replacement, Arrays.asList(rows.get(0), rows.get(1).replace("-a", "-b")));
+        Files.setLastModifiedTime(replacement, Files.getLastModifiedTime(configFile));
+        assertEquals(Files.size(configFile), Files.size(replacement));
+        Files.move(replacement, configFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+        assertEquals(Collections.singleton("client-b"), getClientNames());
+        assertEquals("client-id-b", FileOAuth2Utils.getClientConfigByNameOrId("client-b").getClientId());
+    }
+
+    @Test
+    public void testSnapshotsOfDifferentDirectoriesAreKeptSeparately() throws Exception {
+        String firstDir = tokenCacheDir.newFolder("first").getPath();
+        String secondDir = tokenCacheDir.newFolder("second").getPath();
+        FileOAuth2Utils.writeClientConfigToFile(firstDir, "client-a", "client-id-a", "secret", SCOPES);
+        FileOAuth2Utils.writeClientConfigToFile(secondDir, "client-b", "client-id-b", "secret", SCOPES);
+        assertNotNull(FileOAuth2Utils.getClientConfigByNameOrId(firstDir, "client-a"));
+        assertNotNull(FileOAuth2Utils.getClientConfigByNameOrId(secondDir, "client-b"));
+
+        // rewrite in place keeping size, modification time and file key: only a re-read can see the change
+        Path firstConfig = Paths.get(firstDir, "coaclient.csv");
+        FileTime lastModifiedTime = Files.getLastModifiedTime(firstConfig);
+        byte[] rewritten = new String(Files.readAllBytes(firstConfig), StandardCharsets.UTF_8)
+                .replace("client-a", "client-c")
+                .getBytes(StandardCharsets.UTF_8);
+        Files.write(firstConfig, rewritten, StandardOpenOption.TRUNCATE_EXISTING);
+        Files.setLastModifiedTime(firstConfig, lastModifiedTime);
+
+        for (int i = 0; i < 10; i++) {
+            assertEquals("client-id-b", FileOAuth2Utils.getClientConfigByNameOrId(secondDir, "client-b").getClientId());
+            assertEquals("client-id-a", FileOAuth2Utils.getClientConfigByNameOrId(firstDir, "client-a").getClientId());
+        }
+    }
+
+    private static Set<String> getClientNames() {
+        return FileOAuth2Utils.getClientConfigsFromConfigFile().stream()
+                .map(ClientConfig::getClientName)
+                .collect(Collectors.toSet());
+    }
+}